@@ -0,0 +1,84 @@
+package main.java;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ExpressionEvaluatorBenchmark {
+    
+    @Param({"4", "16", "64", "256"})
+    public int terms;
+    
+    @Param({"1", "4", "16"})
+    public int depth;
+    
+    @Param({"true", "false"})
+    public boolean degrees;
+    
+    private String expression;
+    private CompiledExpression compiled;
+    private TieredExpression tiered;
+    private CompiledExpressionCache cache;
+    private final EvaluationResult result = new EvaluationResult();
+    
+    @Setup
+    public void setup() {
+        expression = buildExpression(terms, depth);
+        compiled = ExpressionEvaluator.compile(expression);
+        // Promoted on the first call; programs over the size limit stay interpreted.
+        tiered = new TieredExpression(compiled, 0);
+        cache = new CompiledExpressionCache(16);
+    }
+    
+    @Benchmark
+    public double evaluate() {
+        return ExpressionEvaluator.evaluate(expression, degrees);
+    }
+    
+    @Benchmark
+    public CompiledExpression compile() {
+        return ExpressionEvaluator.compile(expression);
+    }
+    
+    @Benchmark
+    public double evaluateCompiled() {
+        return compiled.evaluate(degrees);
+    }
+    
+    @Benchmark
+    public double evaluateTiered() {
+        return tiered.evaluate(degrees);
+    }
+    
+    // The path the server and shared sessions take: lookup by text, then the
+    // cached program, promoted after TieredExpression.DEFAULT_THRESHOLD calls.
+    @Benchmark
+    public double evaluateCached() {
+        cache.tryEvaluate(expression, degrees, result);
+        return result.getValue();
+    }
+    
+    // A chain of `terms` operands cycling through every operator and function,
+    // with each group of terms wrapped in `depth` levels of parentheses.
+    static String buildExpression(int terms, int depth) {
+        String[] operators = {"+", "-", "×", "÷", "^", "+"};
+        String[] functions = {"sin", "cos", "tan", "log", "ln", "sqrt"};
+        StringBuilder sb = new StringBuilder();
+        
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                sb.append(operators[i % operators.length]);
+            }
+            int nesting = i % Math.max(1, depth) + 1;
+            sb.append("(".repeat(nesting));
+            sb.append(functions[i % functions.length]).append('(').append(i % 7 + 2).append(".5)");
+            sb.append(")".repeat(nesting));
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
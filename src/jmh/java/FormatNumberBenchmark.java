@@ -0,0 +1,35 @@
+package main.java;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatNumberBenchmark {
+    
+    @Param({"42", "-1234567", "0.1", "3.141592653589793", "6.02214076E23", "1.0E-7"})
+    public double value;
+    
+    private final StringBuilder buffer = new StringBuilder(32);
+    
+    @Benchmark
+    public String formatNumber() {
+        return CalculatorEngine.formatNumber(value);
+    }
+    
+    // What formatNumber cost before it had its own formatter.
+    @Benchmark
+    public String stringFormat() {
+        return String.format("%.10g", value);
+    }
+    
+    @Benchmark
+    public StringBuilder appendNumber() {
+        buffer.setLength(0);
+        return CalculatorEngine.appendNumber(buffer, value);
+    }
+}
\ No newline at end of file
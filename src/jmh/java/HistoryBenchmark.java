@@ -0,0 +1,43 @@
+package main.java;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class HistoryBenchmark {
+    
+    @Param({"0", "10000", "1000000"})
+    public int preloaded;
+    
+    private CalculatorEngine engine;
+    
+    @Setup(Level.Iteration)
+    public void setup() {
+        engine = new CalculatorEngine();
+        for (int i = 0; i < preloaded; i++) {
+            calculation(i);
+        }
+    }
+    
+    // One binary calculation appended to a history that already holds
+    // `preloaded` entries, then the last-entry read the display does.
+    @Benchmark
+    public String calculateAndReadLast() {
+        calculation(7);
+        List<String> history = engine.getHistory();
+        return history.get(history.size() - 1);
+    }
+    
+    private void calculation(int digit) {
+        engine.inputDigit(digit % 10);
+        engine.setOperator("÷");
+        engine.inputDigit(3);
+        engine.calculate();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,177 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Round-trip checks for HistoryJournal: write, reopen and compare what the
+// history shows. Exits non-zero on the first mismatch.
+//
+// java -cp target/benchmarks.jar main.java.HistoryJournalCheck
+public class HistoryJournalCheck {
+    
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("history-journal-check");
+        try {
+            roundTrip(dir.resolve("round-trip.bin"));
+            version1File(dir.resolve("version1.bin"));
+            tornTail(dir.resolve("torn.bin"));
+            ringWrap(dir.resolve("wrap.bin"));
+            compaction(dir.resolve("full.bin"));
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        System.out.println("History journal checks passed");
+    }
+    
+    // Every kind of entry, a clear and the memory register survive a reopen.
+    private static void roundTrip(Path file) throws IOException {
+        CalculationHistory written = new CalculationHistory();
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            written.attachJournal(journal);
+            written.addBinary(1, "+", 2, 3);
+            written.clear();
+            written.addBinary(5, "nCr", 2, 10);
+            written.addFunction("sin", 30, 0.5);
+            written.addPercentage(50, 0.5);
+            written.addExpression("2×(3+4)", 14);
+            journal.setMemoryValue(42);
+        }
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            CalculationHistory read = new CalculationHistory();
+            read.attachJournal(journal);
+            check("round trip", written.asList(), read.asList());
+            check("memory", 42.0, journal.getMemoryValue());
+            check("entry count", 5L, journal.getEntryCount());
+        }
+    }
+    
+    // A file laid out by the first release, written byte by byte, still
+    // replays with the same operations.
+    private static void version1File(Path file) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(0, 0x43414C43);
+        out.putInt(4, 1);
+        out.position(64);
+        putRecord(out, 0, 1, 2, 3, null);
+        putRecord(out, 6, 30, 0, 0.5, null);
+        putRecord(out, 17, 5, 0, 120, null);
+        putRecord(out, 18, 50, 0, 0.5, null);
+        putRecord(out, 19, 0, 0, 7, "3+4");
+        out.putLong(8, out.position());
+        out.putLong(16, 5);
+        Files.write(file, out.array());
+        
+        CalculationHistory expected = new CalculationHistory();
+        expected.addBinary(1, "+", 2, 3);
+        expected.addFunction("sin", 30, 0.5);
+        expected.addFunction("x!", 5, 120);
+        expected.addPercentage(50, 0.5);
+        expected.addExpression("3+4", 7);
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            CalculationHistory read = new CalculationHistory();
+            read.attachJournal(journal);
+            check("version 1 file", expected.asList(), read.asList());
+        }
+    }
+    
+    // Bytes past the published end, as left by a crash mid-append, are not
+    // replayed and are overwritten by the next entry.
+    private static void tornTail(Path file) throws IOException {
+        CalculationHistory written = new CalculationHistory();
+        long end;
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            written.attachJournal(journal);
+            written.addBinary(6, "×", 7, 42);
+            written.addFunction("sqrt", 9, 3);
+            end = journal.getSizeInBytes();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            torn.putInt(25).put((byte) 0).putDouble(99).putShort((short) -1).flip();
+            channel.write(torn, end);
+        }
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            CalculationHistory read = new CalculationHistory();
+            read.attachJournal(journal);
+            check("torn tail", written.asList(), read.asList());
+            read.addBinary(1, "-", 1, 0);
+            written.addBinary(1, "-", 1, 0);
+        }
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            CalculationHistory read = new CalculationHistory();
+            read.attachJournal(journal);
+            check("append after torn tail", written.asList(), read.asList());
+        }
+    }
+    
+    // A history smaller than the journal reloads only the newest entries,
+    // the same ones its ring buffer kept while they were added.
+    private static void ringWrap(Path file) throws IOException {
+        CalculationHistory written = new CalculationHistory(100);
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            written.attachJournal(journal);
+            for (int i = 0; i < 1000; i++) {
+                written.addBinary(i, "+", 1, i + 1);
+            }
+        }
+        try (HistoryJournal journal = HistoryJournal.open(file)) {
+            CalculationHistory read = new CalculationHistory(100);
+            read.attachJournal(journal);
+            check("ring wrap", written.asList(), read.asList());
+            check("entry count after wrap", 1000L, journal.getEntryCount());
+        }
+    }
+    
+    // A journal at its size limit compacts instead of failing the calculation.
+    private static void compaction(Path file) throws IOException {
+        int limit = 64 << 10;
+        CalculationHistory written = new CalculationHistory(100);
+        try (HistoryJournal journal = HistoryJournal.open(file, HistoryJournal.DEFAULT_FLUSH_INTERVAL_MILLIS, limit)) {
+            written.attachJournal(journal);
+            for (int i = 0; i < 20_000; i++) {
+                written.addExpression(i + "+1", i + 1);
+            }
+            if (journal.getSizeInBytes() > limit) {
+                throw new IllegalStateException("compaction: journal grew to " + journal.getSizeInBytes());
+            }
+            check("entry count after compaction", 20_000L, journal.getEntryCount());
+        }
+        try (HistoryJournal journal = HistoryJournal.open(file, HistoryJournal.DEFAULT_FLUSH_INTERVAL_MILLIS, limit)) {
+            CalculationHistory read = new CalculationHistory(100);
+            read.attachJournal(journal);
+            check("compaction", written.asList(), read.asList());
+        }
+    }
+    
+    private static void putRecord(ByteBuffer out, int opcode, double left, double right, double result, String expression) {
+        byte[] text = expression == null ? new byte[0] : expression.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + 3 * Double.BYTES + text.length;
+        out.putInt(payload).put((byte) opcode).putDouble(left).putDouble(right).putDouble(result).put(text).putInt(payload);
+    }
+    
+    private static void check(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(name + ": expected " + expected + ", got " + actual);
+        }
+        System.out.println(name + ": ok");
+    }
+    
+    private static void check(String name, List<String> expected, List<String> actual) {
+        if (!List.copyOf(expected).equals(List.copyOf(actual))) {
+            throw new IllegalStateException(name + ": expected " + expected + ", got " + actual);
+        }
+        System.out.println(name + ": ok (" + actual.size() + " entries)");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,168 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Replays recorded keystroke sessions headless through KeystrokeHandler, the same
+// engine calls CalculatorGUI.keyPressed makes, and reports throughput, per-key
+// latency percentiles and bytes allocated per key as JSON.
+//
+// java -cp target/benchmarks.jar main.java.KeystrokeReplay [--warmup N] [--rounds N] [session.keys ...]
+//
+// Without files the bundled sessions under /sessions are replayed. Sessions can be
+// recorded from the GUI with -Dcalculator.keylog=<file>.
+public class KeystrokeReplay {
+    private static final String[] BUNDLED = {"arithmetic.keys", "expressions.keys", "editing.keys"};
+    
+    public static void main(String[] args) throws IOException {
+        int warmupRounds = 200;
+        int rounds = 1000;
+        List<Path> files = new ArrayList<>();
+        
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup":
+                    warmupRounds = Integer.parseInt(args[++i]);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    files.add(Path.of(args[i]));
+                    break;
+            }
+        }
+        
+        List<String> names = new ArrayList<>();
+        List<KeystrokeHandler.Keystroke[]> sessions = new ArrayList<>();
+        if (files.isEmpty()) {
+            for (String name : BUNDLED) {
+                try (InputStream in = KeystrokeReplay.class.getResourceAsStream("/sessions/" + name)) {
+                    if (in == null) throw new IOException("Missing bundled session: " + name);
+                    names.add(name);
+                    sessions.add(parse(new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+                }
+            }
+        } else {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+                sessions.add(parse(Files.readString(file)));
+            }
+        }
+        
+        PrintStream out = System.out;
+        out.println("[");
+        for (int s = 0; s < sessions.size(); s++) {
+            Result result = replay(sessions.get(s), warmupRounds, rounds);
+            out.print(result.toJson(names.get(s)));
+            out.println(s + 1 < sessions.size() ? "," : "");
+        }
+        out.println("]");
+    }
+    
+    static KeystrokeHandler.Keystroke[] parse(String session) {
+        List<KeystrokeHandler.Keystroke> keys = new ArrayList<>();
+        for (String line : session.split("\n")) {
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("//")) continue;
+            for (String token : trimmed.split("\\s+")) {
+                keys.add(KeystrokeHandler.fromToken(token));
+            }
+        }
+        return keys.toArray(new KeystrokeHandler.Keystroke[0]);
+    }
+    
+    static Result replay(KeystrokeHandler.Keystroke[] keys, int warmupRounds, int rounds) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        
+        long sink = 0;
+        for (int r = 0; r < warmupRounds; r++) {
+            sink += run(new CalculatorEngine(), keys, null);
+        }
+        
+        long[] latencies = new long[keys.length * rounds];
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            sink += run(new CalculatorEngine(), keys, latencies, r * keys.length);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        
+        Arrays.sort(latencies);
+        return new Result(keys.length, rounds, elapsed, allocated, latencies, sink);
+    }
+    
+    private static long run(CalculatorEngine engine, KeystrokeHandler.Keystroke[] keys, long[] latencies) {
+        return run(engine, keys, latencies, 0);
+    }
+    
+    // Each key is applied and what the display reads is read back: the current
+    // input, or while an expression is edited only its length and cursor (the
+    // display copies a window around the cursor, never the whole text).
+    private static long run(CalculatorEngine engine, KeystrokeHandler.Keystroke[] keys, long[] latencies, int offset) {
+        long sink = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long t0 = System.nanoTime();
+            if (keys[i].applyTo(engine)) {
+                if (engine.isEditingExpression()) {
+                    sink += engine.getExpressionLength() + engine.getExpressionCursor();
+                } else {
+                    sink += engine.getCurrentInput().length();
+                }
+            }
+            if (latencies != null) {
+                latencies[offset + i] = System.nanoTime() - t0;
+            }
+        }
+        return sink;
+    }
+    
+    static final class Result {
+        final int keysPerRound;
+        final int rounds;
+        final long elapsedNanos;
+        final long allocatedBytes;
+        final long[] sortedLatencies;
+        final long sink;
+        
+        Result(int keysPerRound, int rounds, long elapsedNanos, long allocatedBytes, long[] sortedLatencies, long sink) {
+            this.keysPerRound = keysPerRound;
+            this.rounds = rounds;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.sortedLatencies = sortedLatencies;
+            this.sink = sink;
+        }
+        
+        long percentile(double p) {
+            if (sortedLatencies.length == 0) return 0;
+            int index = (int) Math.ceil(p / 100.0 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+        }
+        
+        String toJson(String session) {
+            long keys = (long) keysPerRound * rounds;
+            return String.format(Locale.ROOT,
+                    "  {\"session\": \"%s\", \"keys\": %d, \"rounds\": %d, \"keysPerSecond\": %.1f, "
+                    + "\"latencyNanos\": {\"p50\": %d, \"p90\": %d, \"p99\": %d, \"p99.9\": %d, \"max\": %d}, "
+                    + "\"allocatedBytesPerKey\": %.1f, \"checksum\": %d}",
+                    session, keysPerRound, rounds,
+                    keys * 1e9 / Math.max(1, elapsedNanos),
+                    percentile(50), percentile(90), percentile(99), percentile(99.9),
+                    sortedLatencies.length == 0 ? 0 : sortedLatencies[sortedLatencies.length - 1],
+                    (double) allocatedBytes / Math.max(1, keys), sink);
+        }
+    }
+}
\ No newline at end of file
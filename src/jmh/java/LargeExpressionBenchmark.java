@@ -0,0 +1,108 @@
+package main.java;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Generated formulas of 50 and 500 KB: sin(0)+sin(1)+... does not fold, so
+// every term survives into the optimizer and the program. Setup checks the
+// value against a plain sum, so a regression (the optimizer used to recurse
+// once per term and overflowed the stack from about 10,000 terms) fails the
+// run instead of skewing it.
+//
+// The engine benchmarks go through what the GUI does with such a formula:
+// paste it, edit it in the middle, preview the edit and evaluate it.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LargeExpressionBenchmark {
+    
+    @Param({"50", "500"})
+    public int kilobytes;
+    
+    private String expression;
+    private CompiledExpression compiled;
+    // Just after a '+' near the middle, where "1+" can be typed.
+    private int editAt;
+    private String edited;
+    private CalculatorEngine session;
+    
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(kilobytes * 1024 + 16);
+        double expected = 0;
+        for (int i = 0; sb.length() < kilobytes * 1024; i++) {
+            if (i > 0) {
+                sb.append('+');
+            }
+            sb.append("sin(").append(i).append(')');
+            expected += Trig.sinDegrees(i);
+        }
+        expression = sb.toString();
+        compiled = ExpressionEvaluator.compile(expression);
+        double value = compiled.evaluate(true);
+        if (value != expected) {
+            throw new IllegalStateException("Expected " + expected + ", got " + value);
+        }
+        
+        editAt = expression.indexOf('+', expression.length() / 2) + 1;
+        edited = expression.substring(0, editAt) + "1+" + expression.substring(editAt);
+        String display = CalculatorEngine.formatNumber(ExpressionEvaluator.evaluate(edited, true));
+        check("Preview", display, editAndPreview(pasted()));
+        check("Result", display, pasteEditEvaluate());
+        session = pasted();
+    }
+    
+    private static void check(String what, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(what + ": expected " + expected + ", got " + actual);
+        }
+    }
+    
+    private CalculatorEngine pasted() {
+        CalculatorEngine engine = new CalculatorEngine();
+        engine.pasteExpression(expression);
+        return engine;
+    }
+    
+    @Benchmark
+    public CompiledExpression compile() {
+        return ExpressionEvaluator.compile(expression);
+    }
+    
+    @Benchmark
+    public double evaluateCompiled() {
+        return compiled.evaluate(true);
+    }
+    
+    // The whole round trip in a fresh engine, so no cache helps.
+    @Benchmark
+    public String pasteEditEvaluate() {
+        CalculatorEngine engine = pasted();
+        editAndPreview(engine);
+        engine.evaluateExpression();
+        return engine.getCurrentInput();
+    }
+    
+    // One edit in the middle of the pasted formula and the preview the
+    // display shows for it, then the edit is taken back.
+    @Benchmark
+    public String editInMiddle() {
+        String preview = editAndPreview(session);
+        session.backspaceExpression();
+        session.backspaceExpression();
+        return preview;
+    }
+    
+    // Types "1+" at editAt and evaluates the preview as DisplayPanel does.
+    private String editAndPreview(CalculatorEngine engine) {
+        engine.setExpressionCursor(editAt);
+        engine.addToExpression("1");
+        engine.addToExpression("+");
+        ExpressionPreview.Snapshot snapshot = engine.snapshotPreview();
+        EvaluationResult result = new EvaluationResult();
+        return snapshot.evaluate(result) ? snapshot.format(result) : result.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+package main.java;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScientificOperationBenchmark {
+    
+    @Param({"sin", "cos", "tan", "asin", "acos", "atan", "log", "ln", "sqrt", "e^x", "10^x", "x!"})
+    public String function;
+    
+    private CalculatorEngine engine;
+    
+    @Setup
+    public void setup() {
+        engine = new CalculatorEngine();
+    }
+    
+    // Enters 5, applies the function and drops the history entry again so the
+    // measurement does not drift with history size.
+    @Benchmark
+    public String performScientificOperation() {
+        engine.clear();
+        engine.inputDigit(5);
+        engine.performScientificOperation(function);
+        engine.clearHistory();
+        return engine.getCurrentInput();
+    }
+}
\ No newline at end of file
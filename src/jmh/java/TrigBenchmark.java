@@ -0,0 +1,55 @@
+package main.java;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Bulk sin over degree inputs: the old convert-then-Math.sin, the exact
+// degree reduction, and the fast table, each summed over the same column.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrigBenchmark {
+    
+    private static final int SIZE = 4096;
+    
+    private final double[] degrees = new double[SIZE];
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            degrees[i] = (random.nextDouble() - 0.5) * 1440;
+        }
+    }
+    
+    @Benchmark
+    public double toRadians() {
+        double sum = 0;
+        for (double x : degrees) {
+            sum += Math.sin(Math.toRadians(x));
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public double exact() {
+        double sum = 0;
+        for (double x : degrees) {
+            sum += Trig.sinDegrees(x);
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public double fast() {
+        double sum = 0;
+        for (double x : degrees) {
+            sum += FastTrig.sinDegrees(x);
+        }
+        return sum;
+    }
+}
\ No newline at end of file
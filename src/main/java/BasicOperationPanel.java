@@ -5,11 +5,9 @@ import javax.swing.*;
 
 public class BasicOperationPanel extends JPanel {
     private CalculatorEngine engine;
-    private DisplayPanel displayPanel;
     
-    public BasicOperationPanel(CalculatorEngine engine, DisplayPanel displayPanel) {
+    public BasicOperationPanel(CalculatorEngine engine) {
         this.engine = engine;
-        this.displayPanel = displayPanel;
         initializeComponents();
     }
     
@@ -40,10 +38,7 @@ public class BasicOperationPanel extends JPanel {
         button.setBackground(new Color(255, 255, 224));
         button.setToolTipText("Parentheses for grouping");
         
-        button.addActionListener(e -> {
-            engine.addToExpression(paren);
-            displayPanel.updateDisplay();
-        });
+        button.addActionListener(e -> engine.addToExpression(paren));
         
         return button;
     }
@@ -60,7 +55,6 @@ public class BasicOperationPanel extends JPanel {
             } else {
                 engine.setOperator(operation);
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -73,10 +67,7 @@ public class BasicOperationPanel extends JPanel {
         button.setBackground(new Color(230, 230, 250));
         button.setToolTipText("Modulo (remainder) operation");
         
-        button.addActionListener(e -> {
-            engine.setOperator("%");
-            displayPanel.updateDisplay();
-        });
+        button.addActionListener(e -> engine.setOperator("%"));
         
         return button;
     }
@@ -88,10 +79,7 @@ public class BasicOperationPanel extends JPanel {
         button.setBackground(new Color(255, 255, 224));
         button.setToolTipText("Convert to percentage (divide by 100)");
         
-        button.addActionListener(e -> {
-            engine.performPercentage();
-            displayPanel.updateDisplay();
-        });
+        button.addActionListener(e -> engine.performPercentage());
         
         return button;
     }
@@ -107,7 +95,6 @@ public class BasicOperationPanel extends JPanel {
             } else {
                 engine.calculate();
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -118,10 +105,7 @@ public class BasicOperationPanel extends JPanel {
         button.setFont(new Font("Arial", Font.BOLD, 16));
         button.setBackground(new Color(255, 182, 193));
         
-        button.addActionListener(e -> {
-            engine.clear();
-            displayPanel.updateDisplay();
-        });
+        button.addActionListener(e -> engine.clear());
         
         return button;
     }
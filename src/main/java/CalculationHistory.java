@@ -0,0 +1,282 @@
+package main.java;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+// Fixed-capacity ring buffer of calculations. Operands, opcode and result are
+// kept as primitives in parallel arrays; an entry is only turned into text when
+// something asks for it. Once full, each add overwrites the oldest entry.
+// Storage grows on demand up to the capacity, so small sessions stay small.
+public final class CalculationHistory {
+    public static final int DEFAULT_CAPACITY = 10_000;
+    
+    // The opcode of an entry is its index in this table: binary operators,
+    // single-argument functions, percentage, then the codes of expression
+    // entries and of HistoryJournal's clear marker, which have no name here.
+    // Opcodes are journaled, so they never move; a new operation is appended.
+    private static final String[] OPERATIONS = {
+        "+", "-", "×", "÷", "%", "x^y",
+        "sin", "cos", "tan", "asin", "acos", "atan", "log", "ln", "sqrt", "e^x", "10^x", "x!",
+        "x%", null, null,
+        "nCr", "nPr"
+    };
+    private static final int FIRST_FUNCTION = 6;
+    public static final int PERCENTAGE = 18;
+    public static final int EXPRESSION = 19;
+    static final int CLEARED = 20;
+    
+    private static final int INITIAL_SIZE = 16;
+    
+    private double[] left = new double[0];
+    private double[] right = new double[0];
+    private double[] results = new double[0];
+    private byte[] opcodes = new byte[0];
+    // Only expression entries have text of their own; null for the rest.
+    private String[] expressions = new String[0];
+    
+    private int capacity;
+    private int head;
+    private int size;
+    private long addedCount;
+    
+    // Notified on the thread that changes the history (the EDT in the GUI).
+    public interface Listener {
+        // One entry was appended at the end; if droppedOldest, index 0 was
+        // overwritten to make room.
+        void entryAdded(CalculationHistory history, boolean droppedOldest);
+        
+        // Entries were removed or replaced in bulk.
+        void historyReset(CalculationHistory history);
+    }
+    
+    private final List<String> view = new EntryList();
+    private final List<Listener> listeners = new ArrayList<>();
+    private HistoryJournal journal;
+    
+    public CalculationHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public CalculationHistory(int capacity) {
+        setCapacity(capacity);
+    }
+    
+    public void addBinary(double a, String operator, double b, double result) {
+        add(opcodeOf(operator), a, b, result, null);
+    }
+    
+    public void addFunction(String function, double a, double result) {
+        add(opcodeOf(function), a, 0, result, null);
+    }
+    
+    public void addPercentage(double a, double result) {
+        add(PERCENTAGE, a, 0, result, null);
+    }
+    
+    public void addExpression(String expression, double result) {
+        add(EXPRESSION, 0, 0, result, expression);
+    }
+    
+    private void add(int opcode, double a, double b, double result, String expression) {
+        if (journal != null) {
+            journal.append(opcode, a, b, result, expression);
+        }
+        restore(opcode, a, b, result, expression);
+    }
+    
+    // Adds an entry without journaling it; used when reloading a journal.
+    void restore(int opcode, double a, double b, double result, String expression) {
+        if (capacity == 0) return;
+        addedCount++;
+        
+        int slot;
+        boolean droppedOldest = size == capacity;
+        if (!droppedOldest) {
+            if (size == opcodes.length) {
+                resize(Math.min(capacity, Math.max(INITIAL_SIZE, opcodes.length * 2)));
+            }
+            slot = physical(size);
+            size++;
+        } else {
+            slot = head;
+            head = head + 1 == opcodes.length ? 0 : head + 1;
+        }
+        
+        left[slot] = a;
+        right[slot] = b;
+        results[slot] = result;
+        opcodes[slot] = (byte) opcode;
+        expressions[slot] = expression;
+        
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).entryAdded(this, droppedOldest);
+        }
+    }
+    
+    public void clear() {
+        if (journal != null && size > 0) {
+            journal.appendCleared();
+        }
+        Arrays.fill(expressions, null);
+        head = 0;
+        size = 0;
+        fireReset();
+    }
+    
+    // Shrinking keeps the most recent entries.
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("History capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        if (size > capacity) {
+            head = physical(size - capacity);
+            size = capacity;
+        }
+        if (opcodes.length > capacity) {
+            resize(capacity);
+        }
+        fireReset();
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    private void fireReset() {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).historyReset(this);
+        }
+    }
+    
+    private void resize(int length) {
+        double[] newLeft = new double[length];
+        double[] newRight = new double[length];
+        double[] newResults = new double[length];
+        byte[] newOpcodes = new byte[length];
+        String[] newExpressions = new String[length];
+        for (int i = 0; i < size; i++) {
+            int slot = physical(i);
+            newLeft[i] = left[slot];
+            newRight[i] = right[slot];
+            newResults[i] = results[slot];
+            newOpcodes[i] = opcodes[slot];
+            newExpressions[i] = expressions[slot];
+        }
+        left = newLeft;
+        right = newRight;
+        results = newResults;
+        opcodes = newOpcodes;
+        expressions = newExpressions;
+        head = 0;
+    }
+    
+    private int physical(int index) {
+        int slot = head + index;
+        return slot >= opcodes.length ? slot - opcodes.length : slot;
+    }
+    
+    private int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return physical(index);
+    }
+    
+    // Index 0 is the oldest retained entry.
+    public String format(int index) {
+        return appendTo(new StringBuilder(48), index).toString();
+    }
+    
+    public StringBuilder appendTo(StringBuilder sb, int index) {
+        int slot = slot(index);
+        int opcode = opcodes[slot];
+        if (opcode == EXPRESSION) {
+            sb.append(expressions[slot]);
+        } else if (opcode == PERCENTAGE) {
+            CalculatorEngine.appendNumber(sb, left[slot]).append('%');
+        } else if (opcode >= FIRST_FUNCTION && opcode < PERCENTAGE) {
+            CalculatorEngine.appendNumber(sb.append(OPERATIONS[opcode]).append('('), left[slot]).append(')');
+        } else {
+            CalculatorEngine.appendNumber(sb, left[slot]).append(' ').append(OPERATIONS[opcode]).append(' ');
+            CalculatorEngine.appendNumber(sb, right[slot]);
+        }
+        return CalculatorEngine.appendNumber(sb.append(" = "), results[slot]);
+    }
+    
+    public int getOpcode(int index) { return opcodes[slot(index)]; }
+    public double getLeft(int index) { return left[slot(index)]; }
+    public double getRight(int index) { return right[slot(index)]; }
+    public double getResult(int index) { return results[slot(index)]; }
+    public String getExpression(int index) { return expressions[slot(index)]; }
+    
+    // Operator or function name; null for expression entries.
+    public String getOperation(int index) {
+        int opcode = getOpcode(index);
+        return opcode < OPERATIONS.length ? OPERATIONS[opcode] : null;
+    }
+    
+    public static int opcodeOf(String operation) {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (operation.equals(OPERATIONS[i])) return i;
+        }
+        throw new IllegalArgumentException("Unknown operation: " + operation);
+    }
+    
+    // Operator and function names in opcode order.
+    public static String[] operations() {
+        return Arrays.stream(OPERATIONS).filter(Objects::nonNull).toArray(String[]::new);
+    }
+    
+    // One past the highest opcode, for tables indexed by opcode.
+    static int opcodeCount() {
+        return OPERATIONS.length;
+    }
+    
+    // Reloads the newest entries from journal, then records every later
+    // addition and clear in it.
+    public void attachJournal(HistoryJournal journal) {
+        this.journal = null;
+        clear();
+        if (journal != null) {
+            journal.replay(this, capacity);
+        }
+        this.journal = journal;
+    }
+    
+    public HistoryJournal getJournal() { return journal; }
+    
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int getCapacity() { return capacity; }
+    // Entries ever added, including ones since overwritten or cleared.
+    public long getAddedCount() { return addedCount; }
+    // Entries are numbered by a sequence that never repeats; index 0 holds
+    // getFirstSequence() and everything before it is gone.
+    public long getFirstSequence() { return addedCount - size; }
+    
+    // Read-only view that formats entries on access.
+    public List<String> asList() {
+        return view;
+    }
+    
+    private final class EntryList extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            return format(index);
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
\ No newline at end of file
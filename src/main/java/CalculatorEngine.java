@@ -1,9 +1,38 @@
 package main.java;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class CalculatorEngine {
+    public static final int DEFAULT_PRECISION = 34;
+    private static final MathContext DOUBLE_DOUBLE_CONTEXT = new MathContext(DoubleDouble.PRECISION);
+    // Whole numbers longer than this are shown as "≈ 9.332621544e157 (158 digits)".
+    private static final int MAX_PLAIN_INTEGER_DIGITS = 24;
+    private static final int SUMMARY_DIGITS = 10;
+    private static final int DISPLAY_DIGITS = 10;
+    private static final double LONG_RANGE = 0x1p63;
+    
+    // What a change touched, as flags for Listener: the display text (input,
+    // result, error or the expression and its cursor), the modes (angle,
+    // numeric mode and precision, fast trig, expression mode), the memory
+    // register and the history.
+    public static final int DISPLAY_CHANGED = 1;
+    public static final int MODE_CHANGED = 1 << 1;
+    public static final int MEMORY_CHANGED = 1 << 2;
+    public static final int HISTORY_CHANGED = 1 << 3;
+    public static final int ALL_CHANGED = DISPLAY_CHANGED | MODE_CHANGED | MEMORY_CHANGED | HISTORY_CHANGED;
+    
+    // Notified on the thread that changes the engine (the EDT in the GUI),
+    // right after each change; an operation may report in several calls.
+    public interface Listener {
+        void engineChanged(CalculatorEngine engine, int changes);
+    }
+    
     private double currentValue;
     private double previousValue;
     private String currentOperator;
@@ -14,29 +43,93 @@ public class CalculatorEngine {
     
     private double memoryValue;
     
-    private List<String> history;
+    private final CalculationHistory history = new CalculationHistory();
+    // Built on first search.
+    private HistoryIndex historyIndex;
     
     private boolean isDegreeMode = true;
+    // sin, cos and tan in DOUBLE mode through FastTrig rather than Trig.
+    private boolean fastTrig;
     
-    private StringBuilder expressionBuilder;
+    private NumericMode numericMode = NumericMode.DOUBLE;
+    private MathContext mathContext = new MathContext(DEFAULT_PRECISION, RoundingMode.HALF_EVEN);
+    // Full precision operands outside DOUBLE mode; null means the value is
+    // whatever was typed, or currentValue/previousValue.
+    private BigDecimal currentDecimal;
+    private BigDecimal previousDecimal;
+    // Exact value of the last n!, nCr or nPr result, whatever the mode; null
+    // once anything else sets the current value. Past the double range
+    // currentValue is infinite.
+    private BigInteger exactInteger;
+    
+    private ExpressionBuffer expressionBuilder;
     private boolean isExpressionMode;
+    // Created on the first expression edit.
+    private ExpressionPreview preview;
+    
+    // Created on first evaluation so idle sessions stay small.
+    private ExpressionResultCache resultCache;
+    private int resultCacheSize = ExpressionResultCache.DEFAULT_CAPACITY;
+    private final CompiledExpressionCache compiledCache;
+    private final EvaluationResult evaluation = new EvaluationResult();
+    
+    private int maxExpressionLength = Integer.MAX_VALUE;
+    
+    private final List<Listener> listeners = new ArrayList<>();
     
     public CalculatorEngine() {
-        this.history = new ArrayList<>();
-        this.expressionBuilder = new StringBuilder();
+        this(null);
+    }
+    
+    public CalculatorEngine(CompiledExpressionCache compiledCache) {
+        this.compiledCache = compiledCache;
+        this.expressionBuilder = new ExpressionBuffer();
+        history.addListener(new CalculationHistory.Listener() {
+            @Override
+            public void entryAdded(CalculationHistory history, boolean droppedOldest) {
+                changed(HISTORY_CHANGED);
+            }
+            
+            @Override
+            public void historyReset(CalculationHistory history) {
+                changed(HISTORY_CHANGED);
+            }
+        });
         clear();
     }
     
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    private void changed(int changes) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).engineChanged(this, changes);
+        }
+    }
+    
     public void clear() {
+        int changes = isExpressionMode ? DISPLAY_CHANGED | MODE_CHANGED : DISPLAY_CHANGED;
         currentValue = 0;
         previousValue = 0;
+        currentDecimal = null;
+        previousDecimal = null;
+        exactInteger = null;
         currentOperator = null;
         currentInput = "0";
         isNewCalculation = true;
         isError = false;
         errorMessage = null;
-        expressionBuilder.setLength(0);
+        expressionBuilder.clear();
         isExpressionMode = false;
+        if (preview != null) {
+            preview.reset();
+        }
+        changed(changes);
     }
     
     public void clearHistory() {
@@ -50,13 +143,16 @@ public class CalculatorEngine {
             currentInput = String.valueOf(digit);
             isNewCalculation = false;
         } else {
-            if (currentInput.equals("0")) {
+            if (getCurrentInput().equals("0")) {
                 currentInput = String.valueOf(digit);
             } else {
-                currentInput += digit;
+                currentInput = getCurrentInput() + digit;
             }
         }
         currentValue = Double.parseDouble(currentInput);
+        currentDecimal = null;
+        exactInteger = null;
+        changed(DISPLAY_CHANGED);
     }
 
     public void inputDecimal() {
@@ -65,9 +161,12 @@ public class CalculatorEngine {
         if (isNewCalculation) {
             currentInput = "0.";
             isNewCalculation = false;
-        } else if (!currentInput.contains(".")) {
-            currentInput += ".";
+        } else if (!getCurrentInput().contains(".")) {
+            currentInput = getCurrentInput() + ".";
+        } else {
+            return;
         }
+        changed(DISPLAY_CHANGED);
     }
     
     public void setOperator(String operator) {
@@ -78,6 +177,8 @@ public class CalculatorEngine {
         }
 
         previousValue = currentValue;
+        previousDecimal = isHighPrecision() && (Double.isFinite(currentValue) || currentDecimal != null)
+                ? currentDecimal() : null;
         currentOperator = operator;
         isNewCalculation = true;
     }
@@ -86,14 +187,28 @@ public class CalculatorEngine {
         if (isError || currentOperator == null) return;
         
         try {
-            double result = performOperation(previousValue, currentValue, currentOperator);
+            if (Combinatorics.isOperator(currentOperator)) {
+                BigInteger exact = Combinatorics.apply(currentOperator, previousValue, currentValue);
+                history.addBinary(previousValue, currentOperator, currentValue, exact.doubleValue());
+                setResult(exact);
+                currentOperator = null;
+                isNewCalculation = true;
+                return;
+            }
             
-            String calculation = formatNumber(previousValue) + " " + currentOperator + " " + 
-                               formatNumber(currentValue) + " = " + formatNumber(result);
-            history.add(calculation);
+            BigDecimal decimal = null;
+            double result;
+            if (isHighPrecision()) {
+                BigDecimal a = previousDecimal != null ? previousDecimal : toDecimal(previousValue);
+                decimal = performOperation(a, currentDecimal(), currentOperator);
+                result = decimal.doubleValue();
+            } else {
+                result = performOperation(previousValue, currentValue, currentOperator);
+            }
             
-            currentValue = result;
-            currentInput = formatNumber(result);
+            history.addBinary(previousValue, currentOperator, currentValue, result);
+            
+            setResult(result, decimal);
             currentOperator = null;
             isNewCalculation = true;
             
@@ -129,17 +244,65 @@ public class CalculatorEngine {
         }
     }
     
+    private BigDecimal performOperation(BigDecimal a, BigDecimal b, String operator) throws ArithmeticException {
+        if (numericMode == NumericMode.DOUBLE_DOUBLE) {
+            return performOperation(new DoubleDouble().set(a), new DoubleDouble().set(b), operator).toBigDecimal();
+        }
+        switch (operator) {
+            case "+":
+                return a.add(b, mathContext);
+            case "-":
+                return a.subtract(b, mathContext);
+            case "×":
+                return a.multiply(b, mathContext);
+            case "÷":
+                if (b.signum() == 0) throw new ArithmeticException("Division by zero");
+                return a.divide(b, mathContext);
+            case "%":
+                if (b.signum() == 0) {
+                    return a.movePointLeft(2);
+                }
+                return a.remainder(b, mathContext);
+            case "x^y":
+                return DecimalMath.pow(a, b, mathContext);
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + operator);
+        }
+    }
+    
+    private DoubleDouble performOperation(DoubleDouble a, DoubleDouble b, String operator) throws ArithmeticException {
+        switch (operator) {
+            case "+":
+                return a.add(b);
+            case "-":
+                return a.subtract(b);
+            case "×":
+                return a.multiply(b);
+            case "÷":
+                if (b.hi == 0) throw new ArithmeticException("Division by zero");
+                return a.divide(b);
+            case "%":
+                if (b.hi == 0) {
+                    return a.divide(100, 0);
+                }
+                return a.remainder(b);
+            case "x^y":
+                return a.pow(b);
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + operator);
+        }
+    }
+    
     public void performPercentage() {
         if (isError) return;
         
         try {
-            double result = currentValue / 100.0;
+            BigDecimal decimal = isHighPrecision() ? currentDecimal().movePointLeft(2) : null;
+            double result = decimal != null ? decimal.doubleValue() : currentValue / 100.0;
             
-            String calculation = formatNumber(currentValue) + "% = " + formatNumber(result);
-            history.add(calculation);
+            history.addPercentage(currentValue, result);
             
-            currentValue = result;
-            currentInput = formatNumber(result);
+            setResult(result, decimal);
             isNewCalculation = true;
             
         } catch (Exception e) {
@@ -153,38 +316,66 @@ public class CalculatorEngine {
             return;
         }
         
-        if (currentInput.length() > 1) {
-            currentInput = currentInput.substring(0, currentInput.length() - 1);
+        String input = getCurrentInput();
+        if (input.length() > 1 && !input.startsWith("≈")) {
+            currentInput = input.substring(0, input.length() - 1);
             currentValue = Double.parseDouble(currentInput);
         } else {
             currentInput = "0";
             currentValue = 0;
         }
+        currentDecimal = null;
+        exactInteger = null;
+        changed(DISPLAY_CHANGED);
     }
     
     public void toggleSign() {
         if (isError) return;
         
+        if (exactInteger != null) {
+            setResult(exactInteger.negate());
+            return;
+        }
+        if (isHighPrecision() && Double.isFinite(currentValue)) {
+            setResult(-currentValue, currentDecimal().negate());
+            return;
+        }
         currentValue = -currentValue;
         currentInput = formatNumber(currentValue);
+        changed(DISPLAY_CHANGED);
     }
     
     public void performScientificOperation(String function) {
         if (isError) return;
         
         try {
+            if (function.equals("x!") && isWholeNumber()) {
+                BigInteger exact = Combinatorics.factorial(Combinatorics.argument(currentValue));
+                history.addFunction(function, currentValue, exact.doubleValue());
+                setResult(exact);
+                isNewCalculation = true;
+                return;
+            }
+            if (isHighPrecision()) {
+                BigDecimal decimal = performScientificOperation(function, currentDecimal());
+                history.addFunction(function, currentValue, decimal.doubleValue());
+                setResult(decimal.doubleValue(), decimal);
+                isNewCalculation = true;
+                return;
+            }
+            
             double result = 0;
-            double angleInRadians = isDegreeMode ? Math.toRadians(currentValue) : currentValue;
             
             switch (function) {
                 case "sin":
-                    result = Math.sin(angleInRadians);
+                    result = fastTrig ? FastTrig.sin(currentValue, isDegreeMode) : Trig.sin(currentValue, isDegreeMode);
                     break;
                 case "cos":
-                    result = Math.cos(angleInRadians);
+                    result = fastTrig ? FastTrig.cos(currentValue, isDegreeMode) : Trig.cos(currentValue, isDegreeMode);
                     break;
                 case "tan":
-                    result = Math.tan(angleInRadians);
+                    result = fastTrig ? FastTrig.tan(currentValue, isDegreeMode) : Trig.tan(currentValue, isDegreeMode);
+                    if (Double.isNaN(result) && Double.isFinite(currentValue)) throw new ArithmeticException("Domain error");
                     break;
                 case "asin":
                     if (currentValue < -1 || currentValue > 1) {
@@ -223,21 +414,23 @@ public class CalculatorEngine {
                     result = Math.pow(10, currentValue);
                     break;
                 case "x!":
-                    if (currentValue < 0 || currentValue != Math.floor(currentValue)) {
+                    if (Factorials.isPole(currentValue)) {
                         throw new ArithmeticException("Factorial domain error");
                     }
-                    result = factorial((int)currentValue);
+                    result = Factorials.factorial(currentValue);
+                    if (Double.isInfinite(result)) throw new ArithmeticException("Number too large");
                     break;
                 default:
                     throw new IllegalArgumentException("Unknown function: " + function);
             }
             
-            String calculation = function + "(" + formatNumber(currentValue) + ") = " + formatNumber(result);
-            history.add(calculation);
+            history.addFunction(function, currentValue, result);
             
             currentValue = result;
+            exactInteger = null;
             currentInput = formatNumber(result);
             isNewCalculation = true;
+            changed(DISPLAY_CHANGED);
             
         } catch (ArithmeticException e) {
             setError("Math Error: " + e.getMessage());
@@ -246,65 +439,308 @@ public class CalculatorEngine {
         }
     }
     
-    private double factorial(int n) {
-        if (n > 170) throw new ArithmeticException("Number too large");
-        if (n == 0 || n == 1) return 1;
-        
-        double result = 1;
-        for (int i = 2; i <= n; i++) {
-            result *= i;
+    private BigDecimal performScientificOperation(String function, BigDecimal x) throws ArithmeticException {
+        if (numericMode == NumericMode.DOUBLE_DOUBLE) {
+            return performScientificOperation(function, new DoubleDouble().set(x)).toBigDecimal();
+        }
+        switch (function) {
+            case "sin": return DecimalMath.sin(x, isDegreeMode, mathContext);
+            case "cos": return DecimalMath.cos(x, isDegreeMode, mathContext);
+            case "tan": return DecimalMath.tan(x, isDegreeMode, mathContext);
+            case "asin": return DecimalMath.asin(x, isDegreeMode, mathContext);
+            case "acos": return DecimalMath.acos(x, isDegreeMode, mathContext);
+            case "atan": return DecimalMath.atan(x, isDegreeMode, mathContext);
+            case "log": return DecimalMath.log10(x, mathContext);
+            case "ln": return DecimalMath.ln(x, mathContext);
+            case "sqrt": return DecimalMath.sqrt(x, mathContext);
+            case "e^x": return DecimalMath.exp(x, mathContext);
+            case "10^x": return DecimalMath.pow(BigDecimal.TEN, x, mathContext);
+            case "x!":
+                if (x.signum() < 0 && DecimalMath.isInteger(x)) {
+                    throw new ArithmeticException("Factorial domain error");
+                }
+                return DecimalMath.factorial(x, mathContext);
+            default:
+                throw new IllegalArgumentException("Unknown function: " + function);
+        }
+    }
+    
+    private DoubleDouble performScientificOperation(String function, DoubleDouble x) throws ArithmeticException {
+        switch (function) {
+            case "sin": return x.sin(isDegreeMode);
+            case "cos": return x.cos(isDegreeMode);
+            case "tan": return x.tan(isDegreeMode);
+            case "asin": return x.asin(isDegreeMode);
+            case "acos": return x.acos(isDegreeMode);
+            case "atan": return x.atan(isDegreeMode);
+            case "log":
+                if (x.hi <= 0) throw new ArithmeticException("Domain error");
+                return x.log10();
+            case "ln":
+                if (x.hi <= 0) throw new ArithmeticException("Domain error");
+                return x.ln();
+            case "sqrt":
+                if (x.hi < 0) throw new ArithmeticException("Domain error");
+                return x.sqrt();
+            case "e^x": return x.exp();
+            case "10^x": return new DoubleDouble().set(10, 0).pow(x);
+            case "x!":
+                if (x.lo == 0 && Factorials.isPole(x.hi)) {
+                    throw new ArithmeticException("Factorial domain error");
+                }
+                DoubleDouble result = x.factorial();
+                if (result.hi == Double.POSITIVE_INFINITY) throw new ArithmeticException("Number too large");
+                return result;
+            default:
+                throw new IllegalArgumentException("Unknown function: " + function);
         }
-        return result;
     }
     
     public void memoryStore() {
         memoryValue = currentValue;
+        memoryChanged();
     }
     
     public void memoryRecall() {
         currentValue = memoryValue;
+        currentDecimal = null;
+        exactInteger = null;
         currentInput = formatNumber(currentValue);
         isNewCalculation = true;
+        changed(DISPLAY_CHANGED);
     }
     
     public void memoryClear() {
         memoryValue = 0;
+        memoryChanged();
     }
     
     public void memoryAdd() {
         memoryValue += currentValue;
+        memoryChanged();
     }
     
     public void memorySubtract() {
         memoryValue -= currentValue;
+        memoryChanged();
+    }
+    
+    private void memoryChanged() {
+        HistoryJournal journal = history.getJournal();
+        if (journal != null) {
+            journal.setMemoryValue(memoryValue);
+        }
+        changed(MEMORY_CHANGED);
+    }
+    
+    // Restores history and the memory register from journal and keeps both
+    // persisted from now on.
+    public void attachJournal(HistoryJournal journal) {
+        history.attachJournal(journal);
+        if (journal != null) {
+            memoryValue = journal.getMemoryValue();
+            changed(MEMORY_CHANGED);
+        }
     }
     
     public void toggleAngleMode() {
         isDegreeMode = !isDegreeMode;
+        changed(MODE_CHANGED);
+    }
+    
+    // Table-and-polynomial sin, cos and tan (see FastTrig for the error bound);
+    // DOUBLE mode only, the other modes always work to their full precision.
+    public void setFastTrig(boolean fastTrig) {
+        this.fastTrig = fastTrig;
+        changed(MODE_CHANGED);
+    }
+    
+    public void toggleFastTrig() {
+        setFastTrig(!fastTrig);
+    }
+    
+    private void setResult(double result, BigDecimal decimal) {
+        currentValue = result;
+        currentDecimal = decimal;
+        exactInteger = null;
+        currentInput = decimal != null ? formatDecimal(decimal, resultContext()) : formatNumber(result);
+        changed(DISPLAY_CHANGED);
+    }
+    
+    // Kept exactly; the other modes round it only when it is used.
+    private void setResult(BigInteger result) {
+        currentValue = result.doubleValue();
+        currentDecimal = isHighPrecision() ? new BigDecimal(result) : null;
+        exactInteger = result;
+        currentInput = formatInteger(result);
+        changed(DISPLAY_CHANGED);
+    }
+    
+    // Whether x! has an exact integer answer: a non-negative whole number.
+    private boolean isWholeNumber() {
+        if (isHighPrecision() && Double.isFinite(currentValue)) {
+            BigDecimal x = currentDecimal();
+            return x.signum() >= 0 && DecimalMath.isInteger(x);
+        }
+        return currentValue >= 0 && currentValue == Math.rint(currentValue);
+    }
+    
+    // Values are carried as BigDecimal between steps in every mode but DOUBLE.
+    private boolean isHighPrecision() {
+        return numericMode != NumericMode.DOUBLE;
+    }
+    
+    private MathContext resultContext() {
+        return resultContext(numericMode, mathContext);
+    }
+    
+    static MathContext resultContext(NumericMode mode, MathContext mathContext) {
+        return mode == NumericMode.DOUBLE_DOUBLE ? DOUBLE_DOUBLE_CONTEXT : mathContext;
+    }
+    
+    // Typed digits are taken exactly as written; anything else starts from the
+    // shortest decimal that round-trips the double, so 0.1 stays 0.1.
+    private BigDecimal currentDecimal() {
+        if (currentDecimal != null) {
+            return currentDecimal;
+        }
+        if (!isNewCalculation && currentInput != null) {
+            return new BigDecimal(currentInput);
+        }
+        return toDecimal(currentValue);
+    }
+    
+    private static BigDecimal toDecimal(double value) {
+        if (!Double.isFinite(value)) {
+            throw new ArithmeticException("Overflow");
+        }
+        return new BigDecimal(Double.toString(value));
+    }
+    
+    public void setNumericMode(NumericMode mode) {
+        numericMode = Objects.requireNonNull(mode);
+        currentDecimal = exactInteger != null && isHighPrecision() ? new BigDecimal(exactInteger) : null;
+        previousDecimal = null;
+        changed(MODE_CHANGED);
+    }
+    
+    public void nextNumericMode() {
+        NumericMode[] modes = NumericMode.values();
+        setNumericMode(modes[(numericMode.ordinal() + 1) % modes.length]);
+    }
+    
+    // Significant digits kept in BIG_DECIMAL mode; DOUBLE_DOUBLE always has
+    // about DoubleDouble.PRECISION.
+    public void setPrecision(int digits) {
+        if (digits < 1) {
+            throw new IllegalArgumentException("Precision must be positive: " + digits);
+        }
+        mathContext = new MathContext(digits, RoundingMode.HALF_EVEN);
+        changed(MODE_CHANGED);
+    }
+    
+    public NumericMode getNumericMode() { return numericMode; }
+    public int getPrecision() { return mathContext.getPrecision(); }
+    
+    // Digits the current mode actually delivers.
+    public int getEffectivePrecision() {
+        switch (numericMode) {
+            case DOUBLE: return 16;
+            case DOUBLE_DOUBLE: return DoubleDouble.PRECISION;
+            default: return mathContext.getPrecision();
+        }
+    }
+    
+    // Current value at full precision outside DOUBLE mode, otherwise the
+    // exact value of the double.
+    public BigDecimal getDecimalValue() {
+        if (exactInteger != null) {
+            return new BigDecimal(exactInteger);
+        }
+        return isHighPrecision() ? currentDecimal() : new BigDecimal(currentValue);
+    }
+    
+    // The exact result of n!, nCr or nPr while it is the current value, else null.
+    public BigInteger getExactInteger() {
+        return exactInteger;
     }
     
     private void setError(String message) {
+        exactInteger = null;
         isError = true;
         errorMessage = message;
         currentInput = message;
+        changed(DISPLAY_CHANGED);
     }
     
-    private String formatNumber(double number) {
+    // Whole numbers that fit a long are written out, anything else as
+    // String.format("%.10g") would, e.g. 0.1000000000 or 1.000000000e+20.
+    static String formatNumber(double number) {
         if (Double.isInfinite(number)) return "∞";
         if (Double.isNaN(number)) return "NaN";
         
-        if (number == Math.floor(number) && !Double.isInfinite(number)) {
-            return String.valueOf((long)number);
+        if (number == Math.floor(number) && Math.abs(number) < LONG_RANGE) {
+            return Long.toString((long) number);
         } else {
-            return String.format("%.10g", number);
+            return DoubleFormatter.format(number, DISPLAY_DIGITS);
+        }
+    }
+    
+    // Same text as formatNumber, appended without an intermediate string.
+    static StringBuilder appendNumber(StringBuilder sb, double number) {
+        if (Double.isInfinite(number)) return sb.append('∞');
+        if (Double.isNaN(number)) return sb.append("NaN");
+        
+        if (number == Math.floor(number) && Math.abs(number) < LONG_RANGE) {
+            return sb.append((long) number);
+        } else {
+            return DoubleFormatter.append(sb, number, DISPLAY_DIGITS);
+        }
+    }
+    
+    // Long results are summarized from their leading bits; the digits are
+    // only produced if someone asks for them (see getExactInteger).
+    static String formatInteger(BigInteger number) {
+        int digits = Combinatorics.digitCount(number);
+        if (digits <= MAX_PLAIN_INTEGER_DIGITS) {
+            return number.toString();
         }
+        return "≈ " + Combinatorics.toScientific(number, SUMMARY_DIGITS) + " (" + digits + " digits)";
     }
     
-    public String getCurrentInput() { return currentInput; }
+    // Plain notation unless the exponent would need more digits than the
+    // precision, e.g. 0.1 + 0.2 = 0.3 and 2^200 = 1.606938044258990275541962092341162E+60.
+    static String formatDecimal(BigDecimal number, MathContext mathContext) {
+        BigDecimal rounded = number.round(mathContext).stripTrailingZeros();
+        int exponent = rounded.precision() - rounded.scale() - 1;
+        if (exponent >= -7 && exponent < mathContext.getPrecision()) {
+            return rounded.toPlainString();
+        }
+        return rounded.toString();
+    }
+    
+    // While an expression is being edited the text is built only on request.
+    public String getCurrentInput() { return currentInput != null ? currentInput : expressionBuilder.toString(); }
     public boolean isError() { return isError; }
     public String getErrorMessage() { return errorMessage; }
-    public List<String> getHistory() { return history; } 
+    // Read-only view; entries are formatted when read.
+    public List<String> getHistory() { return history.asList(); }
+    public CalculationHistory getCalculationHistory() { return history; }
+    
+    // Indices into getHistory() of entries matching every given criterion;
+    // null text/operation and NaN bounds match anything.
+    public int[] searchHistory(String text, String operation, double minResult, double maxResult) {
+        return getHistoryIndex().search(text, operation, minResult, maxResult);
+    }
+    
+    public HistoryIndex getHistoryIndex() {
+        if (historyIndex == null) {
+            historyIndex = new HistoryIndex(history);
+        }
+        return historyIndex;
+    }
     public boolean isDegreeMode() { return isDegreeMode; }
+    public boolean isFastTrig() { return fastTrig; }
     public double getMemoryValue() { return memoryValue; }
     public boolean hasMemoryValue() { return memoryValue != 0; }
     
@@ -312,42 +748,81 @@ public class CalculatorEngine {
     public void addToExpression(String token) {
         if (isError) clear();
         
+        int changes = DISPLAY_CHANGED;
         if (!isExpressionMode) {
-            expressionBuilder.setLength(0);
+            expressionBuilder.clear();
+            getExpressionPreview().reset();
             isExpressionMode = true;
+            changes |= MODE_CHANGED;
+        }
+        
+        // Input beyond the limit is ignored, like digits past a display's width.
+        if (expressionBuilder.length() + token.length() > maxExpressionLength) {
+            changed(changes);
+            return;
         }
         
-        expressionBuilder.append(token);
-        currentInput = expressionBuilder.toString();
+        int changedFrom = expressionBuilder.getCursor();
+        expressionBuilder.insert(token);
+        getExpressionPreview().update(expressionBuilder, changedFrom);
+        currentInput = null;
+        changed(changes);
+    }
+    
+    // Inserts clipboard text at the cursor: whitespace is dropped and * and /
+    // become × and ÷, so generated formulas can be pasted as they are.
+    public void pasteExpression(String text) {
+        StringBuilder token = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            token.append(c == '*' ? '×' : c == '/' ? '÷' : c);
+        }
+        addToExpression(token.toString());
     }
     
     public void evaluateExpression() {
         if (isError) return;
         
         String expression = expressionBuilder.toString();
-        if (expression.isEmpty()) {
+        if (expression.isEmpty() && currentInput != null) {
             expression = currentInput;
         }
         
-        try {
-            double result = ExpressionEvaluator.evaluate(expression, isDegreeMode);
-            
-            String calculation = expression + " = " + formatNumber(result);
-            history.add(calculation);
-            
-            currentValue = result;
-            currentInput = formatNumber(result);
-            expressionBuilder.setLength(0);
-            isExpressionMode = false;
-            isNewCalculation = true;
-            
-        } catch (IllegalArgumentException e) {
-            setError("Syntax Error: " + e.getMessage());
-        } catch (ArithmeticException e) {
-            setError("Math Error: " + e.getMessage());
-        } catch (Exception e) {
-            setError("Error: " + e.getMessage());
+        // The result cache holds doubles, so other modes evaluate directly. So
+        // does fast trig, whose results must not mix with the exact ones.
+        boolean ok;
+        if (numericMode != NumericMode.DOUBLE) {
+            ok = ExpressionEvaluator.tryEvaluate(expression, isDegreeMode, numericMode, mathContext, evaluation);
+        } else if (fastTrig) {
+            CompiledExpression compiled = compiledCache != null
+                    ? compiledCache.tryCompile(expression, evaluation)
+                    : ExpressionEvaluator.tryCompile(expression, evaluation);
+            ok = compiled != null && compiled.withFastTrig().tryEvaluate(isDegreeMode, evaluation);
+        } else {
+            ok = getResultCache().tryEvaluate(expression, isDegreeMode, evaluation);
         }
+        if (!ok) {
+            if (evaluation.isMathError()) {
+                setError("Math Error: " + evaluation.getMessage());
+            } else {
+                setError("Syntax Error: " + evaluation.getMessage());
+            }
+            return;
+        }
+        
+        double result = evaluation.getValue();
+        
+        history.addExpression(expression, result);
+        
+        expressionBuilder.clear();
+        if (preview != null) {
+            preview.reset();
+        }
+        isExpressionMode = false;
+        isNewCalculation = true;
+        setResult(result, evaluation.getDecimalValue());
+        changed(MODE_CHANGED);
     }
 
     public void backspaceExpression() {
@@ -357,20 +832,120 @@ public class CalculatorEngine {
         }
         
         if (isExpressionMode && expressionBuilder.length() > 0) {
-            expressionBuilder.setLength(expressionBuilder.length() - 1);
-            currentInput = expressionBuilder.length() > 0 ? expressionBuilder.toString() : "0";
+            if (expressionBuilder.deleteBackward()) {
+                getExpressionPreview().update(expressionBuilder, expressionBuilder.getCursor());
+            }
+            currentInput = expressionBuilder.length() > 0 ? null : "0";
             if (expressionBuilder.length() == 0) {
                 isExpressionMode = false;
+                changed(DISPLAY_CHANGED | MODE_CHANGED);
+            } else {
+                changed(DISPLAY_CHANGED);
             }
         } else {
             backspace(); 
         }
     }
     
+    // Removes the character after the cursor; false if there is none.
+    public boolean deleteExpressionForward() {
+        if (isError || !isExpressionMode || !expressionBuilder.deleteForward()) {
+            return false;
+        }
+        getExpressionPreview().update(expressionBuilder, expressionBuilder.getCursor());
+        currentInput = expressionBuilder.length() > 0 ? null : "0";
+        if (expressionBuilder.length() == 0) {
+            isExpressionMode = false;
+            changed(DISPLAY_CHANGED | MODE_CHANGED);
+        } else {
+            changed(DISPLAY_CHANGED);
+        }
+        return true;
+    }
+    
+    public void moveExpressionCursor(int delta) {
+        if (isExpressionMode) {
+            expressionBuilder.moveCursor(delta);
+            changed(DISPLAY_CHANGED);
+        }
+    }
+    
+    public void setExpressionCursor(int position) {
+        if (isExpressionMode) {
+            expressionBuilder.setCursor(Math.max(0, Math.min(expressionBuilder.length(), position)));
+            changed(DISPLAY_CHANGED);
+        }
+    }
+    
+    public int getExpressionCursor() { return expressionBuilder.getCursor(); }
+    public int getExpressionLength() { return expressionBuilder.length(); }
+    
+    // Live read-only view of the expression; valid until the next edit.
+    public CharSequence getExpression() { return expressionBuilder; }
+    
+    // True while the display should show the expression under edit rather
+    // than a result or message.
+    public boolean isEditingExpression() {
+        return isExpressionMode && currentInput == null;
+    }
+    
     public boolean isExpressionMode() {
         return isExpressionMode;
     }
     
+    public void setResultCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative: " + size);
+        }
+        resultCacheSize = size;
+        if (resultCache != null) {
+            resultCache.setCapacity(size);
+        }
+    }
+    
+    public ExpressionResultCache getResultCache() {
+        if (resultCache == null) {
+            resultCache = new ExpressionResultCache(resultCacheSize, compiledCache);
+        }
+        return resultCache;
+    }
+    
+    // Keeps only the most recent entries; 0 disables history.
+    public void setHistoryLimit(int limit) {
+        history.setCapacity(limit);
+    }
+    
+    public void setMaxExpressionLength(int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Expression length limit must be positive: " + length);
+        }
+        maxExpressionLength = length;
+    }
+    
+    public int getHistoryLimit() { return history.getCapacity(); }
+    public int getMaxExpressionLength() { return maxExpressionLength; }
+    
+    // Incremental parse of the expression being typed, for the live preview.
+    public ExpressionPreview getExpressionPreview() {
+        if (preview == null) {
+            preview = new ExpressionPreview();
+        }
+        return preview;
+    }
+    
+    // Snapshot of the current expression's preview program, to be evaluated
+    // as evaluateExpression would now; null outside expression mode.
+    public ExpressionPreview.Snapshot snapshotPreview() {
+        if (!isExpressionMode || preview == null) {
+            return null;
+        }
+        return preview.snapshot(expressionBuilder, getPreviewSettings());
+    }
+    
+    public ExpressionPreview.Settings getPreviewSettings() {
+        return new ExpressionPreview.Settings(isDegreeMode, numericMode, mathContext, fastTrig);
+    }
+    
     public String getCurrentExpression() {
         return expressionBuilder.toString();
     }
@@ -1,8 +1,16 @@
 package main.java;
 
 import java.awt.*;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import javax.swing.*;
 
 public class CalculatorGUI extends JFrame implements KeyListener {
@@ -19,11 +27,57 @@ public class CalculatorGUI extends JFrame implements KeyListener {
     
     private boolean isScientificMode = false;
     
+    private HistoryWindow historyWindow;
+    
+    // Set -Dcalculator.keylog=<file> to record key presses as a replayable session.
+    private PrintWriter keyLog;
+    
+    // History and memory persist in ~/.scientific-calculator/history.journal;
+    // -Dcalculator.history=<file> picks another file, an empty value disables it.
+    private HistoryJournal historyJournal;
+    
     public CalculatorGUI() {
+        openHistoryJournal();
         initializeComponents();
         setupGUI();
         setupEventHandlers();
         setupKeyboardFocus();
+        openKeyLog();
+    }
+    
+    private void openKeyLog() {
+        String path = System.getProperty("calculator.keylog");
+        if (path == null || path.isEmpty()) return;
+        
+        try {
+            keyLog = new PrintWriter(new FileWriter(path, StandardCharsets.UTF_8, true), true);
+        } catch (IOException e) {
+            System.err.println("Failed to open key log: " + e.getMessage());
+        }
+    }
+    
+    private void openHistoryJournal() {
+        String path = System.getProperty("calculator.history");
+        if (path != null && path.isEmpty()) return;
+        
+        Path file = path != null ? Paths.get(path)
+                : Paths.get(System.getProperty("user.home"), ".scientific-calculator", "history.journal");
+        try {
+            historyJournal = HistoryJournal.open(file);
+            Runtime.getRuntime().addShutdownHook(new Thread(historyJournal::close));
+        } catch (IOException e) {
+            System.err.println("Failed to open history journal: " + e.getMessage());
+        }
+    }
+    
+    // The history window is modeless and reused; keys keep going to the
+    // calculator so the list can be watched while calculating.
+    private void showHistory() {
+        if (historyWindow == null || !historyWindow.isDisplayable()) {
+            historyWindow = new HistoryWindow(this, engine);
+        }
+        historyWindow.setVisible(true);
+        SwingUtilities.invokeLater(() -> requestFocus());
     }
     
     private void setupKeyboardFocus() {
@@ -50,11 +104,14 @@ public class CalculatorGUI extends JFrame implements KeyListener {
     
     private void initializeComponents() {
         engine = new CalculatorEngine();
+        if (historyJournal != null) {
+            engine.attachJournal(historyJournal);
+        }
         displayPanel = new DisplayPanel(engine);
-        numericPanel = new NumericKeypadPanel(engine, displayPanel);
-        basicOpPanel = new BasicOperationPanel(engine, displayPanel);
-        scientificPanel = new ScientificFunctionPanel(engine, displayPanel);
-        memoryPanel = new MemoryPanel(engine, displayPanel);
+        numericPanel = new NumericKeypadPanel(engine);
+        basicOpPanel = new BasicOperationPanel(engine);
+        scientificPanel = new ScientificFunctionPanel(engine);
+        memoryPanel = new MemoryPanel(engine);
         
         modeToggle = new JToggleButton("Scientific Mode");
         modeToggle.setFont(new Font("Arial", Font.BOLD, 12));
@@ -129,11 +186,7 @@ public class CalculatorGUI extends JFrame implements KeyListener {
             requestFocus();
         });
         
-        historyButton.addActionListener(e -> {
-            HistoryWindow historyWindow = new HistoryWindow(this, engine);
-            historyWindow.setVisible(true);
-            SwingUtilities.invokeLater(() -> requestFocus());
-        });
+        historyButton.addActionListener(e -> showHistory());
         
         aboutButton.addActionListener(e -> {
             DeveloperInfoWindow aboutWindow = new DeveloperInfoWindow(this);
@@ -163,6 +216,17 @@ public class CalculatorGUI extends JFrame implements KeyListener {
         setJMenuBar(menuBar);
     }
     
+    private void pasteExpression() {
+        try {
+            Object data = Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
+            if (data instanceof String) {
+                engine.pasteExpression((String) data);
+            }
+        } catch (UnsupportedFlavorException | IOException | IllegalStateException ex) {
+            System.err.println("Failed to paste: " + ex.getMessage());
+        }
+    }
+    
     private void showKeyboardHelp() {
         String helpText = """
             Keyboard Shortcuts:
@@ -179,7 +243,7 @@ public class CalculatorGUI extends JFrame implements KeyListener {
             Control Keys:
             • Backspace: Remove last character
             • Esc or C: Clear calculator
-            • Delete: Clear calculator
+            • Delete: Clear calculator (in an expression: delete after cursor)
             • F9 or Shift+_: Toggle sign (±)
             
             Scientific Functions:
@@ -187,6 +251,9 @@ public class CalculatorGUI extends JFrame implements KeyListener {
             • L: Logarithm (log)
             • N: Natural logarithm (ln)
             • Ctrl+S: Sine function
+            • !: Factorial (in an expression, after its operand)
+            • x!, nCr, nPr: Exact whole-number results up to 100000;
+              hover over a long result to see its digits
             
             Memory Operations:
             • Ctrl+M: Memory store
@@ -195,7 +262,11 @@ public class CalculatorGUI extends JFrame implements KeyListener {
             
             Mode Controls:
             • Ctrl+D: Toggle DEG/RAD mode
+            • Ctrl+B: Switch number precision (double / double-double / 34-digit decimal)
+            • Ctrl+T: Toggle fast trigonometry (double precision, within 2 ulps)
             • Ctrl+E: Enter expression mode
+            • Left/Right, Home/End: Move cursor in expression
+            • Ctrl+V: Paste expression
             • F3: Toggle Scientific mode
             
             Windows:
@@ -206,6 +277,7 @@ public class CalculatorGUI extends JFrame implements KeyListener {
             When in expression mode, you can type complete 
             mathematical expressions with proper precedence.
             Example: (2+3)*sin(30)+sqrt(16)
+            A trailing ! is the factorial, also for fractions: 5! or 2.5!
             """;
         
         JTextArea textArea = new JTextArea(helpText);
@@ -228,145 +300,31 @@ public class CalculatorGUI extends JFrame implements KeyListener {
         char key = e.getKeyChar();
         int keyCode = e.getKeyCode();
         
-        if (Character.isDigit(key)) {
-            if (engine.isExpressionMode()) {
-                engine.addToExpression(String.valueOf(key));
-            } else {
-                engine.inputDigit(Character.getNumericValue(key));
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (key == '+' || key == '-' || key == '*' || key == '/' || key == '^' || key == '%') {
-            String operator = String.valueOf(key);
-            if (key == '*') operator = "×";
-            if (key == '/') operator = "÷";
-            
-            if (engine.isExpressionMode()) {
-                engine.addToExpression(operator);
-            } else {
-                engine.setOperator(operator);
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (key == '(' || key == ')') {
-            engine.addToExpression(String.valueOf(key));
-            displayPanel.updateDisplay();
-        }
-        else if (key == '.' || key == ',') {
-            if (engine.isExpressionMode()) {
-                engine.addToExpression(".");
-            } else {
-                engine.inputDecimal();
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (key == '=' || keyCode == KeyEvent.VK_ENTER) {
-            if (engine.isExpressionMode()) {
-                engine.evaluateExpression();
-            } else {
-                engine.calculate();
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (keyCode == KeyEvent.VK_BACK_SPACE) {
-            if (engine.isExpressionMode()) {
-                engine.backspaceExpression();
-            } else {
-                engine.backspace();
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (keyCode == KeyEvent.VK_ESCAPE || key == 'c' || key == 'C') {
-            engine.clear();
-            displayPanel.updateDisplay();
-        }
-        else if (keyCode == KeyEvent.VK_DELETE) {
-            engine.clear();
-            displayPanel.updateDisplay();
-        }
-        else if (key == 's' || key == 'S') {
-            if (e.isControlDown()) {
-                if (engine.isExpressionMode()) {
-                    engine.addToExpression("sin(");
-                } else {
-                    engine.performScientificOperation("sin");
-                }
-                displayPanel.updateDisplay();
-            }
-        }
-        else if (key == 'q' || key == 'Q') {
-            if (engine.isExpressionMode()) {
-                engine.addToExpression("sqrt(");
-            } else {
-                engine.performScientificOperation("sqrt");
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (key == 'l' || key == 'L') {
-            if (engine.isExpressionMode()) {
-                engine.addToExpression("log(");
-            } else {
-                engine.performScientificOperation("log");
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (key == 'n' || key == 'N') {
-            if (engine.isExpressionMode()) {
-                engine.addToExpression("ln(");
-            } else {
-                engine.performScientificOperation("ln");
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (keyCode == KeyEvent.VK_M && e.isControlDown()) {
-            if (e.isShiftDown()) {
-                engine.memoryRecall();
-            } else {
-                engine.memoryStore();
-            }
-            displayPanel.updateDisplay();
+        if (keyLog != null) {
+            keyLog.println(KeystrokeHandler.toToken(key, keyCode, e.isControlDown(), e.isShiftDown()));
         }
-        else if (keyCode == KeyEvent.VK_R && e.isControlDown()) {
-            engine.memoryRecall();
-            displayPanel.updateDisplay();
-        }
-        else if (keyCode == KeyEvent.VK_P && e.isControlDown()) {
-            if (engine.isExpressionMode()) {
-                engine.addToExpression("%");
-            } else {
-                engine.performPercentage();
-            }
-            displayPanel.updateDisplay();
-        }
-        else if (keyCode == KeyEvent.VK_D && e.isControlDown()) {
-            engine.toggleAngleMode();
-            displayPanel.updateDisplay();
+        
+        // The display follows engine changes through its own listener.
+        if (KeystrokeHandler.handle(engine, key, keyCode, e.isControlDown(), e.isShiftDown())) {
+            e.consume();
+            return;
         }
-        else if (keyCode == KeyEvent.VK_F9 || (key == '_' && e.isShiftDown())) {
-            engine.toggleSign();
-            displayPanel.updateDisplay();
+        if (keyCode == KeyEvent.VK_H && e.isControlDown()) {
+            showHistory();
         }
-        else if (keyCode == KeyEvent.VK_H && e.isControlDown()) {
-            HistoryWindow historyWindow = new HistoryWindow(this, engine);
-            historyWindow.setVisible(true);
+        else if (keyCode == KeyEvent.VK_V && e.isControlDown()) {
+            pasteExpression();
         }
         else if (keyCode == KeyEvent.VK_I && e.isControlDown()) {
             DeveloperInfoWindow aboutWindow = new DeveloperInfoWindow(this);
             aboutWindow.setVisible(true);
         }
-        else if (keyCode == KeyEvent.VK_E && e.isControlDown()) {
-            if (!engine.isExpressionMode()) {
-                engine.addToExpression("");
-            }
-            displayPanel.updateDisplay();
-        }
         else if (keyCode == KeyEvent.VK_F1) {
             DeveloperInfoWindow aboutWindow = new DeveloperInfoWindow(this);
             aboutWindow.setVisible(true);
         }
         else if (keyCode == KeyEvent.VK_F2) {
-            HistoryWindow historyWindow = new HistoryWindow(this, engine);
-            historyWindow.setVisible(true);
+            showHistory();
         }
         else if (keyCode == KeyEvent.VK_F3) {
             modeToggle.doClick();
@@ -0,0 +1,205 @@
+package main.java;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Headless entry point: serves expression evaluation over local HTTP with one
+// virtual thread per exchange.
+//
+// POST /evaluate
+//   {"expressions": ["1+2", "sin(x)×2"], "degrees": true, "variables": {"x": 30}}
+// returns
+//   {"results": [{"expression": "1+2", "ok": true, "value": 3.0, "text": "3"}, ...]}
+//
+// A single "expression" string is accepted in place of "expressions", and
+// "fastTrig": true evaluates sin, cos and tan through the FastTrig table.
+public class CalculatorServer {
+    public static final int DEFAULT_PORT = 8080;
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    
+    private final HttpServer server;
+    private final ExecutorService executor;
+    
+    public CalculatorServer(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+    
+    public CalculatorServer(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 1024);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/evaluate", this::handleEvaluate);
+        server.createContext("/health", exchange -> respond(exchange, 200, "{\"status\": \"ok\"}"));
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CalculatorServer calculatorServer = new CalculatorServer(port);
+        calculatorServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(calculatorServer::stop));
+        System.out.println("Calculator server listening on http://localhost:" + calculatorServer.getPort() + "/evaluate");
+    }
+    
+    private void handleEvaluate(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Allow", "POST");
+                respond(exchange, 405, error("Use POST"));
+                return;
+            }
+            
+            String body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                respond(exchange, 413, error("Request body too large"));
+                return;
+            }
+            
+            String response;
+            try {
+                response = evaluate(Json.parse(body));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error("Bad request: " + e.getMessage()));
+                return;
+            }
+            respond(exchange, 200, response);
+        } catch (RuntimeException | Error e) {
+            // Always answer, so the client sees an error instead of a dropped connection.
+            respond(exchange, 500, error("Internal error"));
+        }
+    }
+    
+    static String evaluate(Object request) {
+        if (!(request instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        Map<?, ?> body = (Map<?, ?>) request;
+        
+        List<String> expressions = new ArrayList<>();
+        Object batch = body.get("expressions");
+        if (batch instanceof List) {
+            for (Object item : (List<?>) batch) {
+                // A null entry gets its own "Empty expression" result.
+                if (item != null && !(item instanceof String)) {
+                    throw new IllegalArgumentException("\"expressions\" must contain only strings");
+                }
+                expressions.add((String) item);
+            }
+        } else if (body.get("expression") instanceof String) {
+            expressions.add((String) body.get("expression"));
+        } else {
+            throw new IllegalArgumentException("Missing \"expressions\" array");
+        }
+        
+        boolean isDegreeMode = !Boolean.FALSE.equals(body.get("degrees"));
+        boolean fastTrig = Boolean.TRUE.equals(body.get("fastTrig"));
+        
+        String[] names = new String[0];
+        double[] values = new double[0];
+        Object declared = body.get("variables");
+        if (declared instanceof Map) {
+            Map<?, ?> variables = (Map<?, ?>) declared;
+            names = new String[variables.size()];
+            values = new double[variables.size()];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : variables.entrySet()) {
+                // Keys of a parsed JSON object are always strings.
+                names[i] = (String) entry.getKey();
+                if (!(entry.getValue() instanceof Double)) {
+                    throw new IllegalArgumentException("Variable \"" + names[i] + "\" must be a number");
+                }
+                values[i] = (Double) entry.getValue();
+                i++;
+            }
+        } else if (declared != null) {
+            throw new IllegalArgumentException("\"variables\" must be an object");
+        }
+        
+        EvaluationResult result = new EvaluationResult();
+        StringBuilder sb = new StringBuilder(64 * expressions.size() + 16).append("{\"results\": [");
+        for (int i = 0; i < expressions.size(); i++) {
+            String expression = expressions.get(i);
+            if (i > 0) sb.append(", ");
+            sb.append("{\"expression\": ");
+            Json.appendString(sb, expression == null ? "" : expression);
+            
+            String failure = null;
+            try {
+                TieredExpression compiled = CompiledExpressionCache.shared().tryCompileTiered(expression, result, names);
+                if (compiled != null) {
+                    (fastTrig ? compiled.withFastTrig() : compiled).tryEvaluate(isDegreeMode, result, values);
+                }
+            } catch (IllegalArgumentException e) {
+                // Bad variable names.
+                failure = e.getMessage();
+            } catch (StackOverflowError e) {
+                failure = "Expression too complex";
+            } catch (Throwable e) {
+                // One expression must not take down the rest of the batch.
+                failure = "Internal error";
+            }
+            
+            if (failure != null) {
+                sb.append(", \"ok\": false, \"error\": ");
+                Json.appendString(sb, failure);
+                sb.append(", \"position\": -1");
+            } else if (result.isOk()) {
+                sb.append(", \"ok\": true, \"value\": ");
+                Json.appendNumber(sb, result.getValue());
+                // Formatted numbers never need escaping.
+                sb.append(", \"text\": \"");
+                CalculatorEngine.appendNumber(sb, result.getValue()).append('"');
+            } else {
+                sb.append(", \"ok\": false, \"error\": ");
+                Json.appendString(sb, result.getMessage());
+                sb.append(", \"position\": ").append(result.getErrorPosition());
+            }
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+    
+    private static String readBody(InputStream in) throws IOException {
+        byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        if (bytes.length > MAX_BODY_BYTES) {
+            return null;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static String error(String message) {
+        return Json.appendString(new StringBuilder("{\"error\": "), message).append('}').toString();
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+package main.java;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Exact n!, nPr and nCr. Each is a product of many small factors (a run of
+// consecutive integers, or prime powers for nCr) multiplied as a balanced
+// binary tree, so the expensive multiplications are between operands of
+// similar size, where Karatsuba and Toom-Cook pay off, instead of a long chain
+// of huge-times-small steps. Large products are split into fork-join tasks
+// whose upper levels also use parallelMultiply.
+final class Combinatorics {
+    // 100000! has 456,574 digits.
+    static final int MAX_ARGUMENT = 100_000;
+    
+    // Products of fewer words than this stay on the calling thread.
+    private static final int PARALLEL_WORDS = 1024;
+    private static final int LEAF_WORDS = 4;
+    
+    private static final BigDecimal LOG10_2 = new BigDecimal("0.30102999566398119521373889472449302676818988146211");
+    // Leading digits are estimated; closer than this to a power of ten the
+    // digit count is checked exactly.
+    private static final double EXPONENT_MARGIN = 1e-9;
+    
+    private Combinatorics() {
+    }
+    
+    static boolean isOperator(String operator) {
+        return "nCr".equals(operator) || "nPr".equals(operator);
+    }
+    
+    static BigInteger apply(String operator, double n, double r) {
+        switch (operator) {
+            case "nCr": return combinations(argument(n), argument(r));
+            case "nPr": return permutations(argument(n), argument(r));
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + operator);
+        }
+    }
+    
+    // A whole number from 0 to MAX_ARGUMENT.
+    static int argument(double x) {
+        if (x != Math.rint(x) || x < 0) {
+            throw new ArithmeticException("Domain error");
+        }
+        if (x > MAX_ARGUMENT) {
+            throw new ArithmeticException("Number too large");
+        }
+        return (int) x;
+    }
+    
+    static BigInteger factorial(int n) {
+        return product(2, n);
+    }
+    
+    // Zero when r > n.
+    static BigInteger permutations(int n, int r) {
+        if (r > n) {
+            return BigInteger.ZERO;
+        }
+        return product(n - r + 1, n);
+    }
+    
+    // Multiplied out from its prime factorization rather than dividing
+    // n! / (r! (n - r)!), so there is no huge division. By Legendre's formula
+    // the exponent of p is the number of k with
+    // floor(n / p^k) > floor(r / p^k) + floor((n - r) / p^k), each p^e <= n.
+    static BigInteger combinations(int n, int r) {
+        if (r > n) {
+            return BigInteger.ZERO;
+        }
+        Words words = new Words();
+        boolean[] composite = new boolean[n + 1];
+        for (int p = 2; p <= n; p++) {
+            if (composite[p]) {
+                continue;
+            }
+            for (long multiple = (long) p * p; multiple <= n; multiple += p) {
+                composite[(int) multiple] = true;
+            }
+            long power = 1;
+            for (long q = p; q <= n; q *= p) {
+                if (n / q > r / q + (n - r) / q) {
+                    power *= p;
+                }
+            }
+            words.multiply(power);
+        }
+        return product(words.toArray());
+    }
+    
+    // from * (from + 1) * ... * to; 1 when the range is empty.
+    static BigInteger product(int from, int to) {
+        Words words = new Words();
+        for (long i = from; i <= to; i++) {
+            words.multiply(i);
+        }
+        return product(words.toArray());
+    }
+    
+    private static BigInteger product(long[] words) {
+        if (words.length < PARALLEL_WORDS) {
+            return multiply(words, 0, words.length);
+        }
+        return ForkJoinPool.commonPool().invoke(new Product(words, 0, words.length));
+    }
+    
+    // Product of words[from, to).
+    private static BigInteger multiply(long[] words, int from, int to) {
+        if (to - from <= LEAF_WORDS) {
+            BigInteger result = BigInteger.ONE;
+            for (int i = from; i < to; i++) {
+                result = result.multiply(BigInteger.valueOf(words[i]));
+            }
+            return result;
+        }
+        int middle = (from + to) >>> 1;
+        return multiply(words, from, middle).multiply(multiply(words, middle, to));
+    }
+    
+    private static final class Product extends RecursiveTask<BigInteger> {
+        private final long[] words;
+        private final int from;
+        private final int to;
+        
+        Product(long[] words, int from, int to) {
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected BigInteger compute() {
+            if (to - from < PARALLEL_WORDS) {
+                return multiply(words, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Product low = new Product(words, from, middle);
+            low.fork();
+            BigInteger high = new Product(words, middle, to).compute();
+            return low.join().parallelMultiply(high);
+        }
+    }
+    
+    // Factors packed into as few longs as possible, so the tree starts from
+    // full 63-bit words instead of one small number per leaf.
+    private static final class Words {
+        private long[] words = new long[16];
+        private int size;
+        private long word = 1;
+        
+        void multiply(long factor) {
+            if (word > Long.MAX_VALUE / factor) {
+                if (size == words.length) {
+                    words = Arrays.copyOf(words, size * 2);
+                }
+                words[size++] = word;
+                word = factor;
+            } else {
+                word *= factor;
+            }
+        }
+        
+        long[] toArray() {
+            long[] result = Arrays.copyOf(words, size + 1);
+            result[size] = word;
+            return result;
+        }
+    }
+    
+    static int digitCount(BigInteger value) {
+        BigInteger magnitude = value.abs();
+        if (magnitude.bitLength() < Long.SIZE) {
+            return Long.toString(magnitude.longValue()).length();
+        }
+        BigDecimal log = log10(magnitude);
+        int exponent = log.intValue();
+        double fraction = log.subtract(BigDecimal.valueOf(exponent)).doubleValue();
+        if (fraction < EXPONENT_MARGIN && magnitude.compareTo(BigInteger.TEN.pow(exponent)) < 0) {
+            exponent--;
+        } else if (fraction > 1 - EXPONENT_MARGIN && magnitude.compareTo(BigInteger.TEN.pow(exponent + 1)) >= 0) {
+            exponent++;
+        }
+        return exponent + 1;
+    }
+    
+    // Scientific notation with the given number of significant digits, e.g.
+    // 9.332621544e157 for 100!, read off the leading bits so the number is
+    // never converted to decimal in full.
+    static String toScientific(BigInteger value, int digits) {
+        int exponent = digitCount(value) - 1;
+        double fraction = log10(value.abs()).subtract(BigDecimal.valueOf(exponent)).doubleValue();
+        StringBuilder sb = new StringBuilder(digits + 16);
+        if (value.signum() < 0) {
+            sb.append('-');
+        }
+        // A mantissa in [1, 10) comes out as d.ddd, or just d; anything else
+        // after the first digit means it rounded up to 10.
+        int start = sb.length();
+        DoubleFormatter.append(sb, Math.pow(10, fraction), digits);
+        if (sb.length() > start + 1 && sb.charAt(start + 1) != '.') {
+            sb.setLength(start);
+            DoubleFormatter.append(sb, 1.0, digits);
+            exponent++;
+        }
+        return sb.append('e').append(exponent).toString();
+    }
+    
+    // log10 of a positive value: the power of two is applied exactly, the
+    // leading 63 bits through Math.log10.
+    private static BigDecimal log10(BigInteger magnitude) {
+        int shift = Math.max(0, magnitude.bitLength() - (Long.SIZE - 1));
+        double top = magnitude.shiftRight(shift).longValue();
+        return LOG10_2.multiply(BigDecimal.valueOf(shift)).add(new BigDecimal(Math.log10(top)));
+    }
+}
\ No newline at end of file
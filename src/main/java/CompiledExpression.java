@@ -0,0 +1,589 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class CompiledExpression {
+    static final int OP_PUSH = 0;
+    static final int OP_ADD = 1;
+    static final int OP_SUB = 2;
+    static final int OP_MUL = 3;
+    static final int OP_DIV = 4;
+    static final int OP_POW = 5;
+    static final int OP_MOD = 6;
+    static final int OP_SIN = 7;
+    static final int OP_COS = 8;
+    static final int OP_TAN = 9;
+    static final int OP_LOG = 10;
+    static final int OP_LN = 11;
+    static final int OP_SQRT = 12;
+    static final int OP_LOAD = 13;
+    static final int OP_DUP = 14;
+    static final int OP_STORE = 15;
+    static final int OP_RECALL = 16;
+    static final int OP_NONNEG = 17;
+    static final int OP_FACT = 18;
+    
+    // Instructions are packed as (operand << OPERAND_SHIFT) | opcode.
+    static final int OPCODE_MASK = 0xFF;
+    static final int OPERAND_SHIFT = 8;
+    
+    private static final ThreadLocal<double[]> SCRATCH = ThreadLocal.withInitial(() -> new double[16]);
+    private static final double[] NO_VALUES = new double[0];
+    
+    // Rows per fork-join leaf; below this splitting costs more than it saves.
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+    
+    private static final ColumnKernel VECTOR_KERNEL = loadVectorKernel();
+    
+    private final String expression;
+    private final String[] variables;
+    private final int[] code;
+    private final int[] positions;
+    private final double[] constants;
+    private final int maxStackDepth;
+    private final int localCount;
+    // sin, cos and tan through FastTrig instead of Trig; see withFastTrig.
+    private final boolean fastTrig;
+    // Made on first request.
+    private CompiledExpression fastVariant;
+    
+    private CompiledExpression(String expression, String[] variables, ExpressionOptimizer.Program program) {
+        this.expression = expression;
+        this.variables = variables;
+        this.code = program.code;
+        this.positions = program.positions;
+        this.constants = program.constants;
+        this.maxStackDepth = program.maxStackDepth;
+        this.localCount = program.localCount;
+        this.fastTrig = false;
+    }
+    
+    private CompiledExpression(CompiledExpression program, boolean fastTrig) {
+        this.expression = program.expression;
+        this.variables = program.variables;
+        this.code = program.code;
+        this.positions = program.positions;
+        this.constants = program.constants;
+        this.maxStackDepth = program.maxStackDepth;
+        this.localCount = program.localCount;
+        this.fastTrig = fastTrig;
+    }
+    
+    // Lowers postfix tokens to instructions and optimises them. Syntax errors are
+    // reported through result (returning null); bad variable declarations throw.
+    static CompiledExpression lower(String expression, List<String> postfix, List<Integer> tokenPositions,
+                                    String[] variables, EvaluationResult result) {
+        variables = variables.clone();
+        for (int v = 0; v < variables.length; v++) {
+            String name = variables[v];
+            if (name == null || name.isEmpty() || !name.chars().allMatch(Character::isLetter)) {
+                throw new IllegalArgumentException("Invalid variable name: " + name);
+            }
+            if (ExpressionEvaluator.isFunction(name)) {
+                throw new IllegalArgumentException("Variable name is a function: " + name);
+            }
+            if (indexOf(variables, name) != v) {
+                throw new IllegalArgumentException("Duplicate variable: " + name);
+            }
+        }
+        
+        int[] raw = new int[postfix.size()];
+        int[] rawPositions = new int[postfix.size()];
+        double[] pool = new double[postfix.size()];
+        int constantCount = 0;
+        int depth = 0;
+        
+        for (int i = 0; i < raw.length; i++) {
+            String token = postfix.get(i);
+            int position = tokenPositions.get(i);
+            int opcode = opcodeOf(token);
+            rawPositions[i] = position;
+            
+            if (opcode == OP_PUSH) {
+                double value = parseNumber(token);
+                if (Double.isNaN(value)) {
+                    result.fail(EvaluationResult.INVALID_NUMBER, position);
+                    return null;
+                }
+                pool[constantCount] = value;
+                raw[i] = (constantCount++ << OPERAND_SHIFT) | OP_PUSH;
+                depth++;
+            } else if (opcode == OP_LOAD) {
+                int slot = indexOf(variables, token);
+                if (slot < 0) {
+                    result.fail(EvaluationResult.UNKNOWN_VARIABLE, position);
+                    return null;
+                }
+                raw[i] = (slot << OPERAND_SHIFT) | OP_LOAD;
+                depth++;
+            } else if (opcode <= OP_MOD) {
+                if (depth < 2) {
+                    result.fail(EvaluationResult.INVALID_EXPRESSION, position);
+                    return null;
+                }
+                raw[i] = opcode;
+                depth--;
+            } else {
+                if (depth < 1) {
+                    result.fail(EvaluationResult.INVALID_EXPRESSION, position);
+                    return null;
+                }
+                raw[i] = opcode;
+            }
+        }
+        
+        if (depth != 1) {
+            result.fail(EvaluationResult.INVALID_EXPRESSION, -1);
+            return null;
+        }
+        
+        ExpressionOptimizer.Program program =
+                ExpressionOptimizer.optimize(raw, rawPositions, Arrays.copyOf(pool, constantCount));
+        return new CompiledExpression(expression, variables, program);
+    }
+    
+    // A program built outside lower, by ExpressionPreview; it has no source
+    // text and no variables.
+    static CompiledExpression of(ExpressionOptimizer.Program program) {
+        return new CompiledExpression(null, new String[0], program);
+    }
+    
+    // Digits and at most one decimal point; NaN for anything else.
+    static double parseNumber(String token) {
+        int points = 0;
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) == '.') points++;
+        }
+        if (points > 1 || token.equals(".")) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(token);
+    }
+    
+    // For programs without variables; unlike the varargs form it allocates nothing.
+    public double evaluate(boolean isDegreeMode) {
+        return evaluate(isDegreeMode, NO_VALUES, scratch());
+    }
+    
+    public double evaluate(boolean isDegreeMode, double... values) {
+        return evaluate(isDegreeMode, values, scratch());
+    }
+    
+    public double evaluate(boolean isDegreeMode, double[] values, double[] stack) {
+        if (values.length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " values, got " + values.length);
+        }
+        int failure = run(isDegreeMode, values, stack);
+        if (failure != 0) {
+            throw failure(failure);
+        }
+        return stack[0];
+    }
+    
+    public boolean tryEvaluate(boolean isDegreeMode, EvaluationResult result) {
+        return tryEvaluate(isDegreeMode, result, NO_VALUES, scratch());
+    }
+    
+    public boolean tryEvaluate(boolean isDegreeMode, EvaluationResult result, double... values) {
+        return tryEvaluate(isDegreeMode, result, values, scratch());
+    }
+    
+    // Never throws for data-dependent errors: division by zero and domain errors
+    // are reported through result together with the position of the operator.
+    public boolean tryEvaluate(boolean isDegreeMode, EvaluationResult result, double[] values, double[] stack) {
+        if (values.length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " values, got " + values.length);
+        }
+        result.setSource(expression);
+        int failure = run(isDegreeMode, values, stack);
+        if (failure != 0) {
+            return result.fail(failure & OPCODE_MASK, positions[failure >>> OPERAND_SHIFT]);
+        }
+        result.succeed(stack[0]);
+        return true;
+    }
+    
+    // The same program with sin, cos and tan from FastTrig's table and
+    // polynomials (2 ulps, 3.5 for tan) instead of Trig.
+    public CompiledExpression withFastTrig() {
+        if (fastTrig) {
+            return this;
+        }
+        // Racy on purpose: at worst two equal copies are made.
+        CompiledExpression fast = fastVariant;
+        if (fast == null) {
+            fast = new CompiledExpression(this, true);
+            fastVariant = fast;
+        }
+        return fast;
+    }
+    
+    public boolean isFastTrig() {
+        return fastTrig;
+    }
+    
+    // Bulk variant: failed rows get NaN in out and their status code in status.
+    // Returns the number of failed rows.
+    public int tryEvaluate(boolean isDegreeMode, double[][] columns, double[] out, byte[] status) {
+        checkColumns(columns, out, 0, out.length);
+        if (status.length < out.length) {
+            throw new IllegalArgumentException("Status array is shorter than the output");
+        }
+        
+        double[] stack = new double[getScratchSize()];
+        double[] row = variables.length == 0 ? NO_VALUES : new double[variables.length];
+        int failures = 0;
+        
+        for (int i = 0; i < out.length; i++) {
+            for (int v = 0; v < row.length; v++) {
+                row[v] = columns[v][i];
+            }
+            int failure = run(isDegreeMode, row, stack);
+            if (failure == 0) {
+                out[i] = stack[0];
+                status[i] = EvaluationResult.OK;
+            } else {
+                out[i] = Double.NaN;
+                status[i] = (byte) (failure & OPCODE_MASK);
+                failures++;
+            }
+        }
+        return failures;
+    }
+    
+    public void evaluate(boolean isDegreeMode, double[][] columns, double[] out) {
+        evaluate(isDegreeMode, columns, out, 0, out.length);
+    }
+    
+    public void evaluate(boolean isDegreeMode, double[][] columns, double[] out, int from, int to) {
+        checkColumns(columns, out, from, to);
+        
+        double[] stack = new double[getScratchSize()];
+        double[] row = variables.length == 0 ? NO_VALUES : new double[variables.length];
+        
+        for (int i = from; i < to; i++) {
+            for (int v = 0; v < row.length; v++) {
+                row[v] = columns[v][i];
+            }
+            int failure = run(isDegreeMode, row, stack);
+            if (failure != 0) {
+                throw failure(failure);
+            }
+            out[i] = stack[0];
+        }
+    }
+    
+    public void evaluateVectorized(boolean isDegreeMode, double[][] columns, double[] out) {
+        evaluateVectorized(isDegreeMode, columns, out, 0, out.length);
+    }
+    
+    // Lane-wise sin, cos, tan, log, ln and ^ may differ from the scalar
+    // interpreter in the last place; see VectorColumnEvaluator.
+    public void evaluateVectorized(boolean isDegreeMode, double[][] columns, double[] out, int from, int to) {
+        checkColumns(columns, out, from, to);
+        long failure = runVectorized(isDegreeMode, columns, out, from, to);
+        if (failure >= 0) {
+            throw failure((int) failure);
+        }
+    }
+    
+    public boolean tryEvaluateVectorized(boolean isDegreeMode, double[][] columns, double[] out, EvaluationResult result) {
+        return tryEvaluateVectorized(isDegreeMode, columns, out, 0, out.length, result);
+    }
+    
+    // Rows before the failing one are filled in; the status and position are
+    // the ones scalar evaluation reports, and getErrorRow() says where.
+    public boolean tryEvaluateVectorized(boolean isDegreeMode, double[][] columns, double[] out, int from, int to,
+                                         EvaluationResult result) {
+        checkColumns(columns, out, from, to);
+        result.setSource(expression);
+        long failure = runVectorized(isDegreeMode, columns, out, from, to);
+        if (failure >= 0) {
+            result.fail((int) failure & OPCODE_MASK, positions[(int) failure >>> OPERAND_SHIFT]);
+            result.setErrorRow((int) (failure >>> 32));
+            return false;
+        }
+        // The values are in out.
+        result.succeed(Double.NaN);
+        return true;
+    }
+    
+    public static boolean isVectorized() {
+        return VECTOR_KERNEL != null;
+    }
+    
+    public void evaluateParallel(boolean isDegreeMode, double[][] columns, double[] out) {
+        evaluateParallel(isDegreeMode, columns, out, ForkJoinPool.commonPool());
+    }
+    
+    public void evaluateParallel(boolean isDegreeMode, double[][] columns, double[] out, ForkJoinPool pool) {
+        checkColumns(columns, out, 0, out.length);
+        pool.invoke(new BulkTask(this, isDegreeMode, columns, out, 0, out.length));
+    }
+    
+    // -1, or (row << 32) | the failure run returns for the first failing row.
+    // The kernel only reports the block an error is in, so from there on rows
+    // go through the interpreter, which reports it exactly.
+    private long runVectorized(boolean isDegreeMode, double[][] columns, double[] out, int from, int to) {
+        int start = VECTOR_KERNEL == null ? from : VECTOR_KERNEL.evaluate(this, isDegreeMode, columns, out, from, to);
+        if (start < 0) {
+            return -1;
+        }
+        double[] stack = new double[getScratchSize()];
+        double[] row = variables.length == 0 ? NO_VALUES : new double[variables.length];
+        for (int i = start; i < to; i++) {
+            for (int v = 0; v < row.length; v++) {
+                row[v] = columns[v][i];
+            }
+            int failure = run(isDegreeMode, row, stack);
+            if (failure != 0) {
+                return (long) i << 32 | failure;
+            }
+            out[i] = stack[0];
+        }
+        return -1;
+    }
+    
+    // This thread's stack, grown to fit the program.
+    private double[] scratch() {
+        double[] stack = SCRATCH.get();
+        if (stack.length < getScratchSize()) {
+            stack = new double[getScratchSize()];
+            SCRATCH.set(stack);
+        }
+        return stack;
+    }
+    
+    // Leaves the result in stack[0] and returns 0, or on failure returns
+    // (instruction index << OPERAND_SHIFT) | EvaluationResult status.
+    private int run(boolean isDegreeMode, double[] values, double[] stack) {
+        int sp = -1;
+        
+        for (int pc = 0; pc < code.length; pc++) {
+            int instruction = code[pc];
+            switch (instruction & OPCODE_MASK) {
+                case OP_PUSH:
+                    stack[++sp] = constants[instruction >>> OPERAND_SHIFT];
+                    break;
+                case OP_LOAD:
+                    stack[++sp] = values[instruction >>> OPERAND_SHIFT];
+                    break;
+                case OP_DUP:
+                    stack[sp + 1] = stack[sp];
+                    sp++;
+                    break;
+                case OP_STORE:
+                    stack[maxStackDepth + (instruction >>> OPERAND_SHIFT)] = stack[sp];
+                    break;
+                case OP_RECALL:
+                    stack[++sp] = stack[maxStackDepth + (instruction >>> OPERAND_SHIFT)];
+                    break;
+                case OP_ADD:
+                    sp--;
+                    stack[sp] = stack[sp] + stack[sp + 1];
+                    break;
+                case OP_SUB:
+                    sp--;
+                    stack[sp] = stack[sp] - stack[sp + 1];
+                    break;
+                case OP_MUL:
+                    sp--;
+                    stack[sp] = stack[sp] * stack[sp + 1];
+                    break;
+                case OP_DIV:
+                    sp--;
+                    if (stack[sp + 1] == 0) return (pc << OPERAND_SHIFT) | EvaluationResult.DIVISION_BY_ZERO;
+                    stack[sp] = stack[sp] / stack[sp + 1];
+                    break;
+                case OP_POW:
+                    sp--;
+                    stack[sp] = Math.pow(stack[sp], stack[sp + 1]);
+                    break;
+                case OP_MOD:
+                    sp--;
+                    if (stack[sp + 1] == 0) return (pc << OPERAND_SHIFT) | EvaluationResult.DIVISION_BY_ZERO;
+                    stack[sp] = stack[sp] % stack[sp + 1];
+                    break;
+                case OP_SIN:
+                    stack[sp] = fastTrig ? FastTrig.sin(stack[sp], isDegreeMode) : Trig.sin(stack[sp], isDegreeMode);
+                    break;
+                case OP_COS:
+                    stack[sp] = fastTrig ? FastTrig.cos(stack[sp], isDegreeMode) : Trig.cos(stack[sp], isDegreeMode);
+                    break;
+                case OP_TAN: {
+                    double x = stack[sp];
+                    stack[sp] = fastTrig ? FastTrig.tan(x, isDegreeMode) : Trig.tan(x, isDegreeMode);
+                    if (Double.isNaN(stack[sp]) && Double.isFinite(x)) return (pc << OPERAND_SHIFT) | EvaluationResult.DOMAIN_ERROR;
+                    break;
+                }
+                case OP_LOG:
+                    if (stack[sp] <= 0) return (pc << OPERAND_SHIFT) | EvaluationResult.DOMAIN_ERROR;
+                    stack[sp] = Math.log10(stack[sp]);
+                    break;
+                case OP_LN:
+                    if (stack[sp] <= 0) return (pc << OPERAND_SHIFT) | EvaluationResult.DOMAIN_ERROR;
+                    stack[sp] = Math.log(stack[sp]);
+                    break;
+                case OP_SQRT:
+                    if (stack[sp] < 0) return (pc << OPERAND_SHIFT) | EvaluationResult.DOMAIN_ERROR;
+                    stack[sp] = Math.sqrt(stack[sp]);
+                    break;
+                case OP_NONNEG:
+                    if (stack[sp] < 0) return (pc << OPERAND_SHIFT) | EvaluationResult.DOMAIN_ERROR;
+                    break;
+                case OP_FACT:
+                    if (Factorials.isPole(stack[sp])) return (pc << OPERAND_SHIFT) | EvaluationResult.DOMAIN_ERROR;
+                    stack[sp] = Factorials.factorial(stack[sp]);
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode: " + (instruction & OPCODE_MASK));
+            }
+        }
+        
+        return 0;
+    }
+    
+    private RuntimeException failure(int failure) {
+        EvaluationResult result = new EvaluationResult();
+        result.setSource(expression);
+        result.fail(failure & OPCODE_MASK, positions[failure >>> OPERAND_SHIFT]);
+        return result.toException();
+    }
+    
+    int[] code() {
+        return code;
+    }
+    
+    double[] constants() {
+        return constants;
+    }
+    
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+    
+    public int getLocalCount() {
+        return localCount;
+    }
+    
+    // Size of the double[] passed to evaluate: operand stack followed by local slots.
+    public int getScratchSize() {
+        return maxStackDepth + localCount;
+    }
+    
+    public int getInstructionCount() {
+        return code.length;
+    }
+    
+    public String getExpression() {
+        return expression;
+    }
+    
+    public String[] getVariables() {
+        return variables.clone();
+    }
+    
+    public int getVariableCount() {
+        return variables.length;
+    }
+    
+    private void checkColumns(double[][] columns, double[] out, int from, int to) {
+        if (columns.length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " columns, got " + columns.length);
+        }
+        if (from < 0 || to > out.length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for length " + out.length);
+        }
+        for (int v = 0; v < variables.length; v++) {
+            if (columns[v].length < to) {
+                throw new IllegalArgumentException("Column '" + variables[v] + "' is shorter than the output");
+            }
+        }
+    }
+    
+    private static ColumnKernel loadVectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (ColumnKernel) Class.forName("main.java.VectorColumnEvaluator")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+    
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+    
+    static int opcodeOf(String token) {
+        switch (token) {
+            case "+": return OP_ADD;
+            case "-": return OP_SUB;
+            case "×": return OP_MUL;
+            case "÷": return OP_DIV;
+            case "^": return OP_POW;
+            case "%": return OP_MOD;
+            case "sin": return OP_SIN;
+            case "cos": return OP_COS;
+            case "tan": return OP_TAN;
+            case "log": return OP_LOG;
+            case "ln": return OP_LN;
+            case "sqrt": return OP_SQRT;
+            case "!": return OP_FACT;
+            default:
+                char first = token.charAt(0);
+                if (Character.isDigit(first) || first == '.') {
+                    return OP_PUSH;
+                }
+                return OP_LOAD;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return expression;
+    }
+    
+    interface ColumnKernel {
+        // -1, or the first row of the block where an error was detected; rows
+        // before that block are written to out.
+        int evaluate(CompiledExpression program, boolean isDegreeMode, double[][] columns, double[] out, int from, int to);
+    }
+    
+    private static final class BulkTask extends RecursiveAction {
+        private final CompiledExpression program;
+        private final boolean isDegreeMode;
+        private final double[][] columns;
+        private final double[] out;
+        private final int from;
+        private final int to;
+        
+        BulkTask(CompiledExpression program, boolean isDegreeMode, double[][] columns, double[] out, int from, int to) {
+            this.program = program;
+            this.isDegreeMode = isDegreeMode;
+            this.columns = columns;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                program.evaluateVectorized(isDegreeMode, columns, out, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BulkTask(program, isDegreeMode, columns, out, from, mid),
+                      new BulkTask(program, isDegreeMode, columns, out, mid, to));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package main.java;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread-safe cache of compiled programs, keyed by normalized expression and
+// variable names. CompiledExpression is immutable, so one instance is shared by
+// every engine session and server request that uses the same expression.
+// Bounded approximately: once over capacity an arbitrary batch of entries is
+// dropped instead of tracking recency on every lookup. Each program is held
+// as a TieredExpression, so one that is evaluated through the cache more than
+// the promotion threshold is moved to the method-handle tier.
+public final class CompiledExpressionCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    
+    private static final CompiledExpressionCache SHARED = new CompiledExpressionCache(DEFAULT_CAPACITY);
+    
+    private final ConcurrentHashMap<String, TieredExpression> entries = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final int promotionThreshold;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    public CompiledExpressionCache(int capacity) {
+        this(capacity, TieredExpression.DEFAULT_THRESHOLD);
+    }
+    
+    public CompiledExpressionCache(int capacity, int promotionThreshold) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative: " + capacity);
+        }
+        if (promotionThreshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + promotionThreshold);
+        }
+        this.capacity = capacity;
+        this.promotionThreshold = promotionThreshold;
+    }
+    
+    public static CompiledExpressionCache shared() {
+        return SHARED;
+    }
+    
+    // Returns the cached program or compiles it; null with result describing the
+    // syntax error otherwise. Failed compilations are not cached.
+    public CompiledExpression tryCompile(String expression, EvaluationResult result, String... variables) {
+        TieredExpression tiered = tryCompileTiered(expression, result, variables);
+        return tiered != null ? tiered.getProgram() : null;
+    }
+    
+    // As tryCompile; evaluating through the returned instance counts towards
+    // its promotion.
+    public TieredExpression tryCompileTiered(String expression, EvaluationResult result, String... variables) {
+        if (capacity == 0 || expression == null) {
+            misses.increment();
+            CompiledExpression compiled = ExpressionEvaluator.tryCompile(expression, result, variables);
+            return compiled != null ? new TieredExpression(compiled, promotionThreshold) : null;
+        }
+        
+        String key = key(expression, variables);
+        TieredExpression tiered = entries.get(key);
+        if (tiered != null) {
+            hits.increment();
+            result.reset();
+            result.setSource(tiered.getProgram().getExpression());
+            return tiered;
+        }
+        
+        misses.increment();
+        CompiledExpression compiled = ExpressionEvaluator.tryCompile(expression, result, variables);
+        if (compiled == null) {
+            return null;
+        }
+        if (entries.size() >= capacity) {
+            trim();
+        }
+        tiered = new TieredExpression(compiled, promotionThreshold);
+        TieredExpression existing = entries.putIfAbsent(key, tiered);
+        return existing != null ? existing : tiered;
+    }
+    
+    public boolean tryEvaluate(String expression, boolean isDegreeMode, EvaluationResult result) {
+        TieredExpression tiered = tryCompileTiered(expression, result);
+        return tiered != null && tiered.tryEvaluate(isDegreeMode, result);
+    }
+    
+    private void trim() {
+        int excess = entries.size() - capacity + Math.max(1, capacity / 8);
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (excess-- > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+    
+    private static String key(String expression, String[] variables) {
+        String normalized = ExpressionEvaluator.normalize(expression);
+        if (variables.length == 0) {
+            return normalized;
+        }
+        StringBuilder sb = new StringBuilder(normalized);
+        for (String variable : variables) {
+            sb.append('\u0000').append(variable);
+        }
+        return sb.toString();
+    }
+    
+    public void clear() {
+        entries.clear();
+    }
+    
+    public int getCapacity() { return capacity; }
+    public int getPromotionThreshold() { return promotionThreshold; }
+    public int size() { return entries.size(); }
+    public long getHitCount() { return hits.sum(); }
+    public long getMissCount() { return misses.sum(); }
+}
\ No newline at end of file
@@ -0,0 +1,244 @@
+package main.java;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+import static main.java.CompiledExpression.*;
+
+// Evaluates a postfix expression to the precision of a MathContext. Literals
+// are read from the source text, so 0.1 is exactly one tenth rather than the
+// nearest double.
+//
+// Each stack slot holds either a double that is known to equal the decimal
+// value exactly (decimal[i] == null) or a BigDecimal. Operations on two exact
+// doubles first try the double result and keep it when the rounding error is
+// provably zero (TwoSum, fma residuals); only inexact steps touch BigDecimal.
+final class DecimalEvaluator {
+    // Literals up to this many digits without a decimal point are exact doubles.
+    private static final int EXACT_INTEGER_DIGITS = 15;
+    private static final int EXACT_FACTORIAL = 22;
+    
+    private final double[] fast;
+    private final BigDecimal[] decimal;
+    private final MathContext working;
+    private int sp = -1;
+    
+    private DecimalEvaluator(int size, MathContext mc) {
+        this.fast = new double[size];
+        this.decimal = new BigDecimal[size];
+        this.working = new MathContext(mc.getPrecision() + DecimalMath.GUARD_DIGITS, mc.getRoundingMode());
+    }
+    
+    static boolean evaluate(List<String> postfix, List<Integer> positions, boolean isDegreeMode,
+                            MathContext mc, EvaluationResult result) {
+        return new DecimalEvaluator(postfix.size(), mc).run(postfix, positions, isDegreeMode, mc, result);
+    }
+    
+    private boolean run(List<String> postfix, List<Integer> positions, boolean isDegreeMode,
+                        MathContext mc, EvaluationResult result) {
+        for (int i = 0; i < postfix.size(); i++) {
+            String token = postfix.get(i);
+            int position = positions.get(i);
+            int opcode = opcodeOf(token);
+            
+            if (opcode == OP_PUSH) {
+                if (!push(token)) {
+                    return result.fail(EvaluationResult.INVALID_NUMBER, position);
+                }
+                continue;
+            }
+            if (opcode == OP_LOAD) {
+                return result.fail(EvaluationResult.UNKNOWN_VARIABLE, position);
+            }
+            if (sp < (opcode <= OP_MOD ? 1 : 0)) {
+                return result.fail(EvaluationResult.INVALID_EXPRESSION, position);
+            }
+            
+            int status;
+            try {
+                status = opcode <= OP_MOD ? binary(opcode) : unary(opcode, isDegreeMode);
+            } catch (ArithmeticException e) {
+                status = EvaluationResult.DOMAIN_ERROR;
+            }
+            if (status != EvaluationResult.OK) {
+                return result.fail(status, position);
+            }
+        }
+        
+        if (sp != 0) {
+            return result.fail(EvaluationResult.INVALID_EXPRESSION, -1);
+        }
+        result.succeed(toDecimal(0).round(mc));
+        return true;
+    }
+    
+    private boolean push(String token) {
+        int point = token.indexOf('.');
+        if (token.equals(".") || (point >= 0 && token.indexOf('.', point + 1) >= 0)) {
+            return false;
+        }
+        sp++;
+        if (point < 0 && token.length() <= EXACT_INTEGER_DIGITS) {
+            setExact(sp, Long.parseLong(token));
+            return true;
+        }
+        BigDecimal value = new BigDecimal(token);
+        double d = value.doubleValue();
+        if (!Double.isInfinite(d) && new BigDecimal(d).compareTo(value) == 0) {
+            setExact(sp, d);
+        } else {
+            decimal[sp] = value;
+        }
+        return true;
+    }
+    
+    private int binary(int opcode) {
+        int a = --sp;
+        int b = a + 1;
+        boolean exact = decimal[a] == null && decimal[b] == null;
+        double x = fast[a];
+        double y = fast[b];
+        
+        switch (opcode) {
+            case OP_ADD:
+            case OP_SUB: {
+                if (exact) {
+                    double r = DecimalMath.exactAdd(x, opcode == OP_ADD ? y : -y);
+                    if (r == r) {
+                        setExact(a, r);
+                        return EvaluationResult.OK;
+                    }
+                }
+                BigDecimal right = toDecimal(b);
+                decimal[a] = toDecimal(a).add(opcode == OP_ADD ? right : right.negate(), working);
+                return EvaluationResult.OK;
+            }
+            case OP_MUL: {
+                if (exact) {
+                    double r = DecimalMath.exactMultiply(x, y);
+                    if (r == r) {
+                        setExact(a, r);
+                        return EvaluationResult.OK;
+                    }
+                }
+                decimal[a] = toDecimal(a).multiply(toDecimal(b), working);
+                return EvaluationResult.OK;
+            }
+            case OP_DIV: {
+                if (isZero(b)) {
+                    return EvaluationResult.DIVISION_BY_ZERO;
+                }
+                if (exact) {
+                    double r = DecimalMath.exactDivide(x, y);
+                    if (r == r) {
+                        setExact(a, r);
+                        return EvaluationResult.OK;
+                    }
+                }
+                decimal[a] = toDecimal(a).divide(toDecimal(b), working);
+                return EvaluationResult.OK;
+            }
+            case OP_MOD: {
+                if (isZero(b)) {
+                    return EvaluationResult.DIVISION_BY_ZERO;
+                }
+                // The double remainder is always exact.
+                if (exact) {
+                    setExact(a, x % y);
+                    return EvaluationResult.OK;
+                }
+                decimal[a] = toDecimal(a).remainder(toDecimal(b));
+                return EvaluationResult.OK;
+            }
+            case OP_POW: {
+                if (exact && y == 2) {
+                    double r = DecimalMath.exactMultiply(x, x);
+                    if (r == r) {
+                        setExact(a, r);
+                        return EvaluationResult.OK;
+                    }
+                }
+                decimal[a] = DecimalMath.pow(toDecimal(a), toDecimal(b), working);
+                return EvaluationResult.OK;
+            }
+            default:
+                throw new IllegalStateException("Bad opcode: " + opcode);
+        }
+    }
+    
+    private int unary(int opcode, boolean isDegreeMode) {
+        boolean exact = decimal[sp] == null;
+        double x = fast[sp];
+        
+        switch (opcode) {
+            case OP_SIN:
+                decimal[sp] = DecimalMath.sin(toDecimal(sp), isDegreeMode, working);
+                return EvaluationResult.OK;
+            case OP_COS:
+                decimal[sp] = DecimalMath.cos(toDecimal(sp), isDegreeMode, working);
+                return EvaluationResult.OK;
+            case OP_TAN:
+                decimal[sp] = DecimalMath.tan(toDecimal(sp), isDegreeMode, working);
+                return EvaluationResult.OK;
+            case OP_LOG:
+                if (signum(sp) <= 0) {
+                    return EvaluationResult.DOMAIN_ERROR;
+                }
+                decimal[sp] = DecimalMath.log10(toDecimal(sp), working);
+                return EvaluationResult.OK;
+            case OP_LN:
+                if (signum(sp) <= 0) {
+                    return EvaluationResult.DOMAIN_ERROR;
+                }
+                if (exact && x == 1) {
+                    setExact(sp, 0);
+                    return EvaluationResult.OK;
+                }
+                decimal[sp] = DecimalMath.ln(toDecimal(sp), working);
+                return EvaluationResult.OK;
+            case OP_SQRT:
+                if (signum(sp) < 0) {
+                    return EvaluationResult.DOMAIN_ERROR;
+                }
+                if (exact) {
+                    double r = DecimalMath.exactSqrt(x);
+                    if (r == r) {
+                        setExact(sp, r);
+                        return EvaluationResult.OK;
+                    }
+                }
+                decimal[sp] = DecimalMath.sqrt(toDecimal(sp), working);
+                return EvaluationResult.OK;
+            case OP_FACT:
+                // Up to 22! the double table entry is exact.
+                if (exact && x == Math.rint(x) && x >= 0 && x <= EXACT_FACTORIAL) {
+                    setExact(sp, Factorials.factorial(x));
+                    return EvaluationResult.OK;
+                }
+                decimal[sp] = DecimalMath.factorial(toDecimal(sp), working);
+                return EvaluationResult.OK;
+            default:
+                throw new IllegalStateException("Bad opcode: " + opcode);
+        }
+    }
+    
+    private void setExact(int slot, double value) {
+        fast[slot] = value;
+        decimal[slot] = null;
+    }
+    
+    private BigDecimal toDecimal(int slot) {
+        BigDecimal value = decimal[slot];
+        return value != null ? value : new BigDecimal(fast[slot]);
+    }
+    
+    private boolean isZero(int slot) {
+        return signum(slot) == 0;
+    }
+    
+    private int signum(int slot) {
+        BigDecimal value = decimal[slot];
+        return value != null ? value.signum() : (int) Math.signum(fast[slot]);
+    }
+}
\ No newline at end of file
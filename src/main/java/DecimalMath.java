@@ -0,0 +1,469 @@
+package main.java;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Arbitrary precision counterparts of the calculator functions. Every result is
+// correct to the precision of the given MathContext: series are summed with
+// GUARD_DIGITS extra digits and rounded once at the end.
+//
+// The exact* helpers are the double fast path used by DecimalEvaluator. They
+// return the double result when it is provably exact and NaN otherwise, so the
+// caller only falls back to BigDecimal when rounding actually happened.
+final class DecimalMath {
+    static final int GUARD_DIGITS = 10;
+    
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal HUNDRED_EIGHTY = BigDecimal.valueOf(180);
+    private static final BigDecimal THREE_SIXTY = BigDecimal.valueOf(360);
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    
+    // Constants are cached per working precision.
+    private static final ConcurrentHashMap<Integer, BigDecimal> PI = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, BigDecimal> LN2 = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, BigDecimal> LN10 = new ConcurrentHashMap<>();
+    // Bernoulli numbers B_0, B_1, ... as exact {numerator, denominator} pairs.
+    private static final List<BigInteger[]> BERNOULLI = new ArrayList<>();
+    
+    private DecimalMath() {
+    }
+    
+    static double exactAdd(double a, double b) {
+        double sum = a + b;
+        if (Double.isInfinite(sum)) {
+            return Double.NaN;
+        }
+        // TwoSum: err is the exact rounding error of a + b.
+        double bb = sum - a;
+        double err = (a - (sum - bb)) + (b - bb);
+        return err == 0 ? sum : Double.NaN;
+    }
+    
+    static double exactMultiply(double a, double b) {
+        double product = a * b;
+        if (Double.isInfinite(product) || (product != 0 && Math.abs(product) < Double.MIN_NORMAL)) {
+            return Double.NaN;
+        }
+        if (product == 0 && a != 0 && b != 0) {
+            return Double.NaN;
+        }
+        return Math.fma(a, b, -product) == 0 ? product : Double.NaN;
+    }
+    
+    static double exactDivide(double a, double b) {
+        double quotient = a / b;
+        if (Double.isInfinite(quotient) || (quotient != 0 && Math.abs(quotient) < Double.MIN_NORMAL)) {
+            return Double.NaN;
+        }
+        if (quotient == 0 && a != 0) {
+            return Double.NaN;
+        }
+        return Math.fma(quotient, b, -a) == 0 ? quotient : Double.NaN;
+    }
+    
+    static double exactSqrt(double a) {
+        double root = Math.sqrt(a);
+        return Math.fma(root, root, -a) == 0 ? root : Double.NaN;
+    }
+    
+    static boolean isInteger(BigDecimal x) {
+        return x.signum() == 0 || x.scale() <= 0 || x.stripTrailingZeros().scale() <= 0;
+    }
+    
+    static BigDecimal pi(MathContext mc) {
+        return PI.computeIfAbsent(mc.getPrecision(), p -> {
+            MathContext wc = working(p);
+            // Machin: pi = 16 atan(1/5) - 4 atan(1/239)
+            BigDecimal a = arctanInverse(5, wc).multiply(BigDecimal.valueOf(16));
+            BigDecimal b = arctanInverse(239, wc).multiply(BigDecimal.valueOf(4));
+            return a.subtract(b).round(new MathContext(p, RoundingMode.HALF_EVEN));
+        });
+    }
+    
+    static BigDecimal sqrt(BigDecimal x, MathContext mc) {
+        if (x.signum() < 0) {
+            throw new ArithmeticException("Domain error");
+        }
+        return x.sqrt(mc);
+    }
+    
+    static BigDecimal ln(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0) {
+            throw new ArithmeticException("Domain error");
+        }
+        if (x.compareTo(BigDecimal.ONE) == 0) {
+            return BigDecimal.ZERO;
+        }
+        MathContext wc = working(mc.getPrecision());
+        // x = m * 10^e with m in [1, 10), then m = f * 2^j with f in [1, 2).
+        int e = x.precision() - x.scale() - 1;
+        BigDecimal m = x.movePointLeft(e);
+        int j = 0;
+        while (m.compareTo(TWO) >= 0) {
+            m = m.divide(TWO);
+            j++;
+        }
+        BigDecimal sum = ln1To2(m, wc);
+        if (j != 0) {
+            sum = sum.add(ln2(wc).multiply(BigDecimal.valueOf(j)), wc);
+        }
+        if (e != 0) {
+            sum = sum.add(ln10(wc).multiply(BigDecimal.valueOf(e)), wc);
+        }
+        return sum.round(mc);
+    }
+    
+    static BigDecimal log10(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0) {
+            throw new ArithmeticException("Domain error");
+        }
+        BigDecimal stripped = x.stripTrailingZeros();
+        if (stripped.unscaledValue().equals(BigInteger.ONE)) {
+            return BigDecimal.valueOf(-stripped.scale());
+        }
+        MathContext wc = working(mc.getPrecision());
+        return ln(x, wc).divide(ln10(wc), mc);
+    }
+    
+    static BigDecimal exp(BigDecimal x, MathContext mc) {
+        if (x.signum() == 0) {
+            return BigDecimal.ONE;
+        }
+        int integerDigits = Math.max(0, x.precision() - x.scale());
+        if (integerDigits > 9) {
+            throw new ArithmeticException(x.signum() > 0 ? "Overflow" : "Underflow");
+        }
+        MathContext wc = working(mc.getPrecision() + integerDigits);
+        // x = k ln2 + r with |r| <= ln2 / 2, exp(x) = 2^k exp(r)
+        BigDecimal ln2 = ln2(wc);
+        BigDecimal k = x.divide(ln2, 0, RoundingMode.HALF_EVEN);
+        BigDecimal r = x.subtract(ln2.multiply(k), wc);
+        
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(wc.getPrecision() + 1);
+        for (int n = 1; term.abs().compareTo(epsilon) > 0; n++) {
+            term = term.multiply(r).divide(BigDecimal.valueOf(n), wc);
+            sum = sum.add(term, wc);
+        }
+        return sum.multiply(TWO.pow(k.intValueExact(), wc), wc).round(mc);
+    }
+    
+    static BigDecimal pow(BigDecimal base, BigDecimal exponent, MathContext mc) {
+        if (isInteger(exponent) && exponent.abs().compareTo(BigDecimal.valueOf(999_999_999)) <= 0) {
+            int n = exponent.intValueExact();
+            if (base.signum() == 0 && n < 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            if (n == 0) {
+                return BigDecimal.ONE;
+            }
+            return base.pow(n, working(mc.getPrecision())).round(mc);
+        }
+        if (base.signum() == 0) {
+            if (exponent.signum() < 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            return BigDecimal.ZERO;
+        }
+        boolean negate = false;
+        if (base.signum() < 0) {
+            // Only integer exponents have a real result for a negative base.
+            if (!isInteger(exponent)) {
+                throw new ArithmeticException("Domain error");
+            }
+            negate = exponent.toBigInteger().testBit(0);
+            base = base.negate();
+        }
+        MathContext wc = working(mc.getPrecision());
+        BigDecimal result = exp(exponent.multiply(ln(base, wc), wc), mc);
+        return negate ? result.negate() : result;
+    }
+    
+    static BigDecimal sin(BigDecimal x, boolean isDegreeMode, MathContext mc) {
+        if (isDegreeMode) {
+            BigDecimal degrees = x.remainder(THREE_SIXTY);
+            BigDecimal exact = exactSin(degrees);
+            if (exact != null) {
+                return exact;
+            }
+            x = toRadians(degrees, mc);
+        }
+        return sinRadians(x, mc);
+    }
+    
+    static BigDecimal cos(BigDecimal x, boolean isDegreeMode, MathContext mc) {
+        if (isDegreeMode) {
+            // cos(x) = sin(x + 90)
+            BigDecimal degrees = x.remainder(THREE_SIXTY).add(BigDecimal.valueOf(90));
+            BigDecimal exact = exactSin(degrees);
+            if (exact != null) {
+                return exact;
+            }
+            return sinRadians(toRadians(degrees, mc), mc);
+        }
+        MathContext wc = working(mc.getPrecision() + magnitude(x));
+        return sinRadians(x.add(pi(wc).divide(TWO), wc), mc);
+    }
+    
+    static BigDecimal tan(BigDecimal x, boolean isDegreeMode, MathContext mc) {
+        if (isDegreeMode) {
+            BigDecimal degrees = x.remainder(BigDecimal.valueOf(180));
+            if (isInteger(degrees) && degrees.intValue() % 45 == 0) {
+                switch (Math.floorMod(degrees.intValue(), 180)) {
+                    case 0: return BigDecimal.ZERO;
+                    case 45: return BigDecimal.ONE;
+                    case 135: return BigDecimal.ONE.negate();
+                    default: throw new ArithmeticException("Domain error");
+                }
+            }
+        }
+        MathContext wc = working(mc.getPrecision());
+        BigDecimal cos = cos(x, isDegreeMode, wc);
+        if (cos.signum() == 0) {
+            throw new ArithmeticException("Domain error");
+        }
+        return sin(x, isDegreeMode, wc).divide(cos, mc);
+    }
+    
+    static BigDecimal asin(BigDecimal x, boolean isDegreeMode, MathContext mc) {
+        int cmp = x.abs().compareTo(BigDecimal.ONE);
+        if (cmp > 0) {
+            throw new ArithmeticException("Domain error");
+        }
+        MathContext wc = working(mc.getPrecision());
+        BigDecimal radians;
+        if (cmp == 0) {
+            radians = pi(wc).divide(TWO);
+            if (x.signum() < 0) radians = radians.negate();
+        } else {
+            BigDecimal root = BigDecimal.ONE.subtract(x.multiply(x), wc).sqrt(wc);
+            radians = atanRadians(x.divide(root, wc), wc);
+        }
+        return fromRadians(radians, isDegreeMode, wc).round(mc);
+    }
+    
+    static BigDecimal acos(BigDecimal x, boolean isDegreeMode, MathContext mc) {
+        MathContext wc = working(mc.getPrecision());
+        BigDecimal halfTurn = isDegreeMode ? BigDecimal.valueOf(90) : pi(wc).divide(TWO);
+        return halfTurn.subtract(asin(x, isDegreeMode, wc), wc).round(mc);
+    }
+    
+    static BigDecimal atan(BigDecimal x, boolean isDegreeMode, MathContext mc) {
+        MathContext wc = working(mc.getPrecision());
+        return fromRadians(atanRadians(x, wc), isDegreeMode, wc).round(mc);
+    }
+    
+    // x! for any x but the negative integers; Gamma(x + 1) off the integers.
+    static BigDecimal factorial(BigDecimal x, MathContext mc) {
+        if (isInteger(x)) {
+            if (x.signum() < 0) {
+                throw new ArithmeticException("Domain error");
+            }
+            if (x.compareTo(BigDecimal.valueOf(Combinatorics.MAX_ARGUMENT)) > 0) {
+                throw new ArithmeticException("Number too large");
+            }
+            return factorial(x.intValue(), mc);
+        }
+        return gamma(x.add(BigDecimal.ONE), mc);
+    }
+    
+    // Gamma(z) for non-integer z: shift z up to at least the working digits,
+    // sum Stirling's series for ln Gamma there and divide the shift back out.
+    static BigDecimal gamma(BigDecimal z, MathContext mc) {
+        MathContext wc = working(mc.getPrecision());
+        if (z.compareTo(HALF) < 0) {
+            // Gamma(z) Gamma(1 - z) = pi / sin(pi z)
+            BigDecimal pi = pi(wc);
+            BigDecimal sin = sinRadians(pi.multiply(z, wc), wc);
+            if (sin.signum() == 0) {
+                throw new ArithmeticException("Domain error");
+            }
+            return pi.divide(sin.multiply(gamma(BigDecimal.ONE.subtract(z), wc), wc), mc);
+        }
+        
+        BigDecimal shift = BigDecimal.ONE;
+        BigDecimal x = z;
+        BigDecimal start = BigDecimal.valueOf(wc.getPrecision());
+        while (x.compareTo(start) < 0) {
+            shift = shift.multiply(x, wc);
+            x = x.add(BigDecimal.ONE);
+        }
+        
+        // ln Gamma(x) = (x - 1/2) ln x - x + ln(2 pi) / 2 + sum B_2k / (2k (2k - 1) x^(2k - 1))
+        BigDecimal lnGamma = x.subtract(HALF).multiply(ln(x, wc), wc).subtract(x, wc)
+                .add(ln(pi(wc).multiply(TWO), wc).divide(TWO, wc), wc);
+        BigDecimal square = x.multiply(x, wc);
+        BigDecimal power = x;
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(wc.getPrecision() + 1);
+        for (int k = 1; ; k++) {
+            BigDecimal divisor = power.multiply(BigDecimal.valueOf(2L * k * (2L * k - 1)), wc);
+            BigDecimal term = bernoulli(2 * k, wc).divide(divisor, wc);
+            lnGamma = lnGamma.add(term, wc);
+            if (term.abs().compareTo(epsilon) <= 0) break;
+            power = power.multiply(square, wc);
+        }
+        return exp(lnGamma, wc).divide(shift, mc);
+    }
+    
+    // n! for a non-negative integer n, rounded to mc.
+    static BigDecimal factorial(int n, MathContext mc) {
+        return new BigDecimal(Combinatorics.factorial(n)).round(mc);
+    }
+    
+    private static BigDecimal sinRadians(BigDecimal x, MathContext mc) {
+        MathContext wc = working(mc.getPrecision() + magnitude(x));
+        BigDecimal pi = pi(wc);
+        BigDecimal twoPi = pi.multiply(TWO);
+        // Reduce into [-pi, pi].
+        BigDecimal r = x.remainder(twoPi, wc);
+        if (r.compareTo(pi) > 0) {
+            r = r.subtract(twoPi);
+        } else if (r.compareTo(pi.negate()) < 0) {
+            r = r.add(twoPi);
+        }
+        
+        BigDecimal square = r.multiply(r, wc);
+        BigDecimal term = r;
+        BigDecimal sum = r;
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(wc.getPrecision() + 1);
+        for (int n = 1; term.abs().compareTo(epsilon) > 0; n++) {
+            term = term.multiply(square).divide(BigDecimal.valueOf((2L * n) * (2L * n + 1)), wc).negate();
+            sum = sum.add(term, wc);
+        }
+        return sum.round(mc);
+    }
+    
+    private static BigDecimal atanRadians(BigDecimal x, MathContext wc) {
+        if (x.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        if (x.abs().compareTo(BigDecimal.ONE) > 0) {
+            // atan(x) = sign(x) pi/2 - atan(1/x)
+            BigDecimal halfPi = pi(wc).divide(TWO);
+            BigDecimal inner = atanRadians(BigDecimal.ONE.divide(x, wc), wc);
+            return (x.signum() > 0 ? halfPi : halfPi.negate()).subtract(inner, wc);
+        }
+        // atan(x) = 2 atan(x / (1 + sqrt(1 + x^2))), twice brings |x| below 0.2.
+        BigDecimal y = x;
+        for (int i = 0; i < 2; i++) {
+            BigDecimal root = BigDecimal.ONE.add(y.multiply(y), wc).sqrt(wc);
+            y = y.divide(BigDecimal.ONE.add(root), wc);
+        }
+        return arctanSeries(y, wc).multiply(BigDecimal.valueOf(4));
+    }
+    
+    private static BigDecimal arctanSeries(BigDecimal x, MathContext wc) {
+        BigDecimal square = x.multiply(x, wc);
+        BigDecimal power = x;
+        BigDecimal sum = x;
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(wc.getPrecision() + 1);
+        for (int n = 1; power.abs().compareTo(epsilon) > 0; n++) {
+            power = power.multiply(square, wc).negate();
+            sum = sum.add(power.divide(BigDecimal.valueOf(2L * n + 1), wc), wc);
+        }
+        return sum;
+    }
+    
+    // atan(1/n) for an integer n > 1.
+    private static BigDecimal arctanInverse(int n, MathContext wc) {
+        return arctanSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(n), wc), wc);
+    }
+    
+    // ln(m) for m in [1, 2] via 2 atanh((m - 1) / (m + 1)).
+    private static BigDecimal ln1To2(BigDecimal m, MathContext wc) {
+        BigDecimal z = m.subtract(BigDecimal.ONE).divide(m.add(BigDecimal.ONE), wc);
+        BigDecimal square = z.multiply(z, wc);
+        BigDecimal power = z;
+        BigDecimal sum = z;
+        BigDecimal epsilon = BigDecimal.ONE.movePointLeft(wc.getPrecision() + 1);
+        for (int n = 1; power.compareTo(epsilon) > 0; n++) {
+            power = power.multiply(square, wc);
+            sum = sum.add(power.divide(BigDecimal.valueOf(2L * n + 1), wc), wc);
+        }
+        return sum.multiply(TWO);
+    }
+    
+    private static BigDecimal ln2(MathContext mc) {
+        return LN2.computeIfAbsent(mc.getPrecision(),
+                p -> ln1To2(TWO, working(p)).round(new MathContext(p)));
+    }
+    
+    private static BigDecimal ln10(MathContext mc) {
+        // ln(10) = 3 ln(2) + ln(1.25)
+        return LN10.computeIfAbsent(mc.getPrecision(), p -> {
+            MathContext wc = working(p);
+            return ln2(wc).multiply(BigDecimal.valueOf(3)).add(ln1To2(new BigDecimal("1.25"), wc)).round(new MathContext(p));
+        });
+    }
+    
+    // B_m = -1/(m + 1) sum_{j < m} C(m + 1, j) B_j, kept exact.
+    private static BigDecimal bernoulli(int n, MathContext mc) {
+        BigInteger[] value;
+        synchronized (BERNOULLI) {
+            while (BERNOULLI.size() <= n) {
+                int m = BERNOULLI.size();
+                if (m == 0) {
+                    BERNOULLI.add(new BigInteger[] {BigInteger.ONE, BigInteger.ONE});
+                    continue;
+                }
+                BigInteger numerator = BigInteger.ZERO;
+                BigInteger denominator = BigInteger.ONE;
+                BigInteger binomial = BigInteger.ONE;
+                for (int j = 0; j < m; j++) {
+                    BigInteger[] b = BERNOULLI.get(j);
+                    numerator = numerator.multiply(b[1]).add(binomial.multiply(b[0]).multiply(denominator));
+                    denominator = denominator.multiply(b[1]);
+                    BigInteger gcd = numerator.gcd(denominator);
+                    numerator = numerator.divide(gcd);
+                    denominator = denominator.divide(gcd);
+                    binomial = binomial.multiply(BigInteger.valueOf(m + 1 - j)).divide(BigInteger.valueOf(j + 1));
+                }
+                denominator = denominator.multiply(BigInteger.valueOf(m + 1));
+                BigInteger gcd = numerator.gcd(denominator);
+                BERNOULLI.add(new BigInteger[] {numerator.divide(gcd).negate(), denominator.divide(gcd)});
+            }
+            value = BERNOULLI.get(n);
+        }
+        return new BigDecimal(value[0]).divide(new BigDecimal(value[1]), mc);
+    }
+    
+    // sin at multiples of 30 and 90 degrees, where the result is a short decimal.
+    private static BigDecimal exactSin(BigDecimal degrees) {
+        if (!isInteger(degrees)) {
+            return null;
+        }
+        int d = Math.floorMod(degrees.intValue(), 360);
+        switch (d) {
+            case 0: case 180: return BigDecimal.ZERO;
+            case 90: return BigDecimal.ONE;
+            case 270: return BigDecimal.ONE.negate();
+            case 30: case 150: return HALF;
+            case 210: case 330: return HALF.negate();
+            default: return null;
+        }
+    }
+    
+    private static BigDecimal toRadians(BigDecimal degrees, MathContext mc) {
+        MathContext wc = working(mc.getPrecision());
+        return degrees.multiply(pi(wc)).divide(HUNDRED_EIGHTY, wc);
+    }
+    
+    private static BigDecimal fromRadians(BigDecimal radians, boolean isDegreeMode, MathContext wc) {
+        return isDegreeMode ? radians.multiply(HUNDRED_EIGHTY).divide(pi(wc), wc) : radians;
+    }
+    
+    // Decimal digits in the integer part of x, used to widen argument reduction.
+    private static int magnitude(BigDecimal x) {
+        return Math.max(0, x.precision() - x.scale());
+    }
+    
+    private static MathContext working(int precision) {
+        return new MathContext(precision + GUARD_DIGITS, RoundingMode.HALF_EVEN);
+    }
+}
\ No newline at end of file
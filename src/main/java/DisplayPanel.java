@@ -1,50 +1,229 @@
 package main.java;
 
 import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.math.BigInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.*;
 
 public class DisplayPanel extends JPanel {
     private JTextField displayField;
     private JLabel historyLabel;
     private JLabel modeLabel;
+    private JLabel previewLabel;
     private CalculatorEngine engine;
     
+    // Engine changes are collected and applied at most once per frame, so key
+    // repeat and pasted input cost one layout and repaint, not one per event;
+    // a label is only set when its text really differs.
+    private static final int FRAME_MILLIS = 16;
+    private static final Color ERROR_BACKGROUND = new Color(255, 230, 230);
+    private Timer frameTimer;
+    private int pendingChanges;
+    private final StringBuilder text = new StringBuilder(64);
+    private String displayText;
+    private String modeText;
+    private String historyText;
+    private boolean showsError;
+    
+    // Live preview: evaluation waits until typing pauses and then runs off
+    // the event thread; results for an outdated expression are dropped.
+    private static final int PREVIEW_DELAY_MILLIS = 150;
+    private static final int EXPRESSION_WINDOW = 24;
+    private static final int MEMORY_DIGITS = 3;
+    private static final ExecutorService BACKGROUND_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "display-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Timer previewTimer;
+    private long previewVersion = -1;
+    private ExpressionPreview.Settings previewSettings;
+    
+    // A summarized integer result is converted to decimal only when the
+    // pointer rests on the display, in the background, once per value.
+    private static final int TOOLTIP_DIGITS = 60;
+    private BigInteger tooltipInteger;
+    private String tooltipText;
+    
     public DisplayPanel(CalculatorEngine engine) {
         this.engine = engine;
         initializeComponents();
         setupLayout();
+        engine.addListener((source, changes) -> {
+            pendingChanges |= changes;
+            if (!frameTimer.isRunning()) {
+                frameTimer.start();
+            }
+        });
     }
     
+    // Brings everything up to date now; engine changes otherwise arrive on
+    // their own through the listener, a frame later.
     public void updateDisplay() {
-        String displayText = engine.getCurrentInput();
+        pendingChanges = 0;
+        frameTimer.stop();
+        update(CalculatorEngine.ALL_CHANGED);
+    }
+    
+    private void flushChanges() {
+        int changes = pendingChanges;
+        pendingChanges = 0;
+        update(changes);
+    }
+    
+    private void update(int changes) {
+        if ((changes & CalculatorEngine.DISPLAY_CHANGED) != 0) {
+            text.setLength(0);
+            if (engine.isEditingExpression()) {
+                appendExpressionWindow(text.append("Expr: "));
+            } else {
+                if (engine.isExpressionMode()) {
+                    text.append("Expr: ");
+                }
+                text.append(engine.getCurrentInput());
+            }
+            if (differs(displayText)) {
+                displayText = text.toString();
+                displayField.setText(displayText);
+            }
+            
+            if (engine.isError() != showsError) {
+                showsError = engine.isError();
+                displayField.setBackground(showsError ? ERROR_BACKGROUND : Color.WHITE);
+            }
+        }
         
-        if (engine.isExpressionMode()) {
-            displayText = "Expr: " + displayText;
+        if ((changes & (CalculatorEngine.MODE_CHANGED | CalculatorEngine.MEMORY_CHANGED)) != 0) {
+            text.setLength(0);
+            text.append(engine.isDegreeMode() ? "DEG" : "RAD");
+            if (engine.getNumericMode() == NumericMode.DOUBLE_DOUBLE) {
+                text.append(" | DD");
+            } else if (engine.getNumericMode() == NumericMode.BIG_DECIMAL) {
+                text.append(" | DEC").append(engine.getPrecision());
+            } else if (engine.isFastTrig()) {
+                text.append(" | FAST");
+            }
+            text.append(" | M: ");
+            appendMemoryValue(text);
+            if (engine.isExpressionMode()) {
+                text.append(" | EXPR");
+            }
+            if (differs(modeText)) {
+                modeText = text.toString();
+                modeLabel.setText(modeText);
+            }
         }
         
-        displayField.setText(displayText);
+        if ((changes & CalculatorEngine.HISTORY_CHANGED) != 0) {
+            text.setLength(0);
+            CalculationHistory history = engine.getCalculationHistory();
+            if (history.size() > 0) {
+                history.appendTo(text, history.size() - 1);
+            } else {
+                text.append(' ');
+            }
+            if (differs(historyText)) {
+                historyText = text.toString();
+                historyLabel.setText(historyText);
+            }
+        }
         
-        String mode = engine.isDegreeMode() ? "DEG" : "RAD";
-        String memory = engine.hasMemoryValue() ? "M: " + formatMemoryValue() : "M: 0";
-        String exprMode = engine.isExpressionMode() ? " | EXPR" : "";
-        modeLabel.setText(mode + " | " + memory + exprMode);
+        if ((changes & (CalculatorEngine.DISPLAY_CHANGED | CalculatorEngine.MODE_CHANGED)) != 0) {
+            schedulePreview();
+        }
+    }
+    
+    // Whether the text just built differs from what a component shows.
+    private boolean differs(String shown) {
+        return shown == null || !shown.contentEquals(text);
+    }
+    
+    // The part of the expression around the cursor that fits the display, so
+    // a keystroke in a long expression costs the window, not the whole text.
+    private void appendExpressionWindow(StringBuilder sb) {
+        CharSequence expression = engine.getExpression();
+        int length = expression.length();
+        int cursor = engine.getExpressionCursor();
+        int from = Math.max(0, Math.min(cursor - EXPRESSION_WINDOW / 2, length - EXPRESSION_WINDOW));
+        int to = Math.min(length, from + EXPRESSION_WINDOW);
         
-        java.util.List<String> history = engine.getHistory();
-        if (!history.isEmpty()) {
-            historyLabel.setText(history.get(history.size() - 1));
-        } else {
-            historyLabel.setText(" ");
+        if (from > 0) sb.append('…');
+        sb.append(expression, from, cursor);
+        if (cursor < length) sb.append('|');
+        sb.append(expression, cursor, to);
+        if (to < length) sb.append('…');
+    }
+    
+    private void schedulePreview() {
+        if (!engine.isExpressionMode() || engine.isError()) {
+            previewTimer.stop();
+            previewVersion = -1;
+            previewLabel.setText(" ");
+            return;
         }
         
-        if (engine.isError()) {
-            displayField.setBackground(new Color(255, 230, 230));
-        } else {
-            displayField.setBackground(Color.WHITE);
+        long version = engine.getExpressionPreview().getVersion();
+        ExpressionPreview.Settings settings = engine.getPreviewSettings();
+        if (version == previewVersion && settings.equals(previewSettings)) {
+            return;
+        }
+        previewVersion = version;
+        previewSettings = settings;
+        previewTimer.restart();
+    }
+    
+    private void startPreview() {
+        ExpressionPreview.Snapshot snapshot = engine.snapshotPreview();
+        if (snapshot == null || snapshot.isEmpty()) {
+            previewLabel.setText(" ");
+            return;
+        }
+        
+        long version = previewVersion;
+        ExpressionPreview.Settings settings = snapshot.getSettings();
+        BACKGROUND_EXECUTOR.execute(() -> {
+            EvaluationResult result = new EvaluationResult();
+            String text = snapshot.evaluate(result) ? "= " + snapshot.format(result) : " ";
+            SwingUtilities.invokeLater(() -> {
+                if (version == previewVersion && settings.equals(previewSettings)) {
+                    previewLabel.setText(text);
+                }
+            });
+        });
+    }
+    
+    private String exactTooltip() {
+        BigInteger exact = engine.getExactInteger();
+        if (exact == null || engine.isExpressionMode() || !engine.getCurrentInput().startsWith("≈")) {
+            return null;
+        }
+        if (exact != tooltipInteger) {
+            tooltipInteger = exact;
+            tooltipText = "Converting to decimal…";
+            BACKGROUND_EXECUTOR.execute(() -> {
+                String digits = exact.toString();
+                String text = digits.length() <= 2 * TOOLTIP_DIGITS ? digits
+                        : digits.substring(0, TOOLTIP_DIGITS) + "…" + digits.substring(digits.length() - TOOLTIP_DIGITS);
+                SwingUtilities.invokeLater(() -> {
+                    if (exact == tooltipInteger) {
+                        tooltipText = text;
+                    }
+                });
+            });
         }
+        return tooltipText;
     }
     
     private void initializeComponents() {
-        displayField = new JTextField();
+        displayField = new JTextField() {
+            @Override
+            public String getToolTipText(MouseEvent event) {
+                String exact = exactTooltip();
+                return exact != null ? exact : super.getToolTipText(event);
+            }
+        };
         displayField.setEditable(false);
         displayField.setFont(new Font("Arial", Font.BOLD, 24));
         displayField.setHorizontalAlignment(JTextField.RIGHT);
@@ -65,6 +244,18 @@ public class DisplayPanel extends JPanel {
         modeLabel.setForeground(Color.BLUE);
         modeLabel.setToolTipText("Angle mode and Memory status - Ctrl+D to toggle DEG/RAD");
         
+        previewLabel = new JLabel(" ");
+        previewLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        previewLabel.setHorizontalAlignment(SwingConstants.RIGHT);
+        previewLabel.setForeground(Color.GRAY);
+        previewLabel.setToolTipText("Result of the expression typed so far");
+        
+        previewTimer = new Timer(PREVIEW_DELAY_MILLIS, e -> startPreview());
+        previewTimer.setRepeats(false);
+        
+        frameTimer = new Timer(FRAME_MILLIS, e -> flushChanges());
+        frameTimer.setRepeats(false);
+        
         updateDisplay();
     }
     
@@ -78,14 +269,15 @@ public class DisplayPanel extends JPanel {
         
         add(topPanel, BorderLayout.NORTH);
         add(displayField, BorderLayout.CENTER);
+        add(previewLabel, BorderLayout.SOUTH);
     }
     
-    private String formatMemoryValue() {
+    private void appendMemoryValue(StringBuilder sb) {
         double memValue = engine.getMemoryValue();
-        if (memValue == Math.floor(memValue) && !Double.isInfinite(memValue)) {
-            return String.valueOf((long)memValue);
+        if (memValue == Math.floor(memValue) && Math.abs(memValue) < 0x1p63) {
+            sb.append((long) memValue);
         } else {
-            return String.format("%.3g", memValue);
+            DoubleFormatter.append(sb, memValue, MEMORY_DIGITS);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,488 @@
+package main.java;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+// Mutable double-double accumulator: the value is the unevaluated sum hi + lo
+// with |lo| <= ulp(hi) / 2, about 106 bits or 31 decimal digits. Operations
+// replace this value in place, so evaluation loops allocate nothing; the
+// functions use at most two scratch accumulators created on first use.
+//
+// Algorithms follow the usual error-free transformations (TwoSum, fma based
+// TwoProd) and the QD library's accurate add, multiply, divide and sqrt.
+// Non-finite intermediate results collapse to (hi, 0) like plain doubles.
+final class DoubleDouble {
+    // Digits shown for double-double results; the 32nd is not reliable.
+    static final int PRECISION = 31;
+    
+    private static final double PI_HI;
+    private static final double PI_LO;
+    private static final double LN2_HI;
+    private static final double LN2_LO;
+    private static final double LN10_HI;
+    private static final double LN10_LO;
+    private static final double DEGREE_HI;
+    private static final double DEGREE_LO;
+    // 1/n! for the Taylor series.
+    private static final double[] INV_FACT_HI = new double[32];
+    private static final double[] INV_FACT_LO = new double[32];
+    // exp reduces its argument by 2^EXP_SQUARINGS before the series.
+    private static final int EXP_SQUARINGS = 9;
+    private static final double EPSILON = 0x1p-106;
+    private static final double[] FACTORIAL_HI = new double[Factorials.MAX_ARGUMENT + 1];
+    private static final double[] FACTORIAL_LO = new double[Factorials.MAX_ARGUMENT + 1];
+    private static final MathContext GAMMA_CONTEXT = new MathContext(PRECISION + 3);
+    
+    static {
+        MathContext mc = new MathContext(40);
+        DoubleDouble d = new DoubleDouble();
+        d.set(DecimalMath.pi(mc));
+        PI_HI = d.hi;
+        PI_LO = d.lo;
+        d.set(DecimalMath.ln(BigDecimal.valueOf(2), mc));
+        LN2_HI = d.hi;
+        LN2_LO = d.lo;
+        d.set(DecimalMath.ln(BigDecimal.TEN, mc));
+        LN10_HI = d.hi;
+        LN10_LO = d.lo;
+        d.set(DecimalMath.pi(mc).divide(BigDecimal.valueOf(180), mc));
+        DEGREE_HI = d.hi;
+        DEGREE_LO = d.lo;
+        BigDecimal factorial = BigDecimal.ONE;
+        for (int n = 0; n < INV_FACT_HI.length; n++) {
+            if (n > 1) factorial = factorial.multiply(BigDecimal.valueOf(n));
+            d.set(BigDecimal.ONE.divide(factorial, mc));
+            INV_FACT_HI[n] = d.hi;
+            INV_FACT_LO[n] = d.lo;
+        }
+        factorial = BigDecimal.ONE;
+        for (int n = 0; n < FACTORIAL_HI.length; n++) {
+            if (n > 1) factorial = factorial.multiply(BigDecimal.valueOf(n));
+            d.set(factorial);
+            FACTORIAL_HI[n] = d.hi;
+            FACTORIAL_LO[n] = d.lo;
+        }
+    }
+    
+    double hi;
+    double lo;
+    
+    private DoubleDouble s;
+    private DoubleDouble t;
+    
+    DoubleDouble set(double hi, double lo) {
+        this.hi = hi;
+        this.lo = lo;
+        return this;
+    }
+    
+    DoubleDouble set(DoubleDouble other) {
+        return set(other.hi, other.lo);
+    }
+    
+    DoubleDouble set(BigDecimal value) {
+        hi = value.doubleValue();
+        lo = Double.isInfinite(hi) ? 0 : value.subtract(new BigDecimal(hi)).doubleValue();
+        return this;
+    }
+    
+    // Decimal literal such as "12" or "0.1"; integers of up to 15 digits skip BigDecimal.
+    DoubleDouble parse(String token) {
+        if (token.length() <= 15 && token.indexOf('.') < 0) {
+            return set(Long.parseLong(token), 0);
+        }
+        return set(new BigDecimal(token));
+    }
+    
+    boolean isFinite() {
+        return Double.isFinite(hi);
+    }
+    
+    double doubleValue() {
+        return hi + lo;
+    }
+    
+    // Exact sum of the two parts; ArithmeticException if not finite.
+    BigDecimal toBigDecimal() {
+        if (Double.isNaN(hi)) {
+            throw new ArithmeticException("Domain error");
+        }
+        if (Double.isInfinite(hi)) {
+            throw new ArithmeticException("Overflow");
+        }
+        return new BigDecimal(hi).add(new BigDecimal(lo));
+    }
+    
+    DoubleDouble negate() {
+        hi = -hi;
+        lo = -lo;
+        return this;
+    }
+    
+    DoubleDouble add(DoubleDouble b) {
+        return add(b.hi, b.lo);
+    }
+    
+    DoubleDouble add(double bh, double bl) {
+        double sum = hi + bh;
+        if (!Double.isFinite(sum)) {
+            return set(sum, 0);
+        }
+        double v = sum - hi;
+        double e = (hi - (sum - v)) + (bh - v);
+        double tail = lo + bl;
+        double w = tail - lo;
+        double f = (lo - (tail - w)) + (bl - w);
+        e += tail;
+        double h = sum + e;
+        e -= h - sum;
+        e += f;
+        hi = h + e;
+        lo = e - (hi - h);
+        return this;
+    }
+    
+    DoubleDouble subtract(DoubleDouble b) {
+        return add(-b.hi, -b.lo);
+    }
+    
+    DoubleDouble multiply(DoubleDouble b) {
+        return multiply(b.hi, b.lo);
+    }
+    
+    DoubleDouble multiply(double bh, double bl) {
+        double p = hi * bh;
+        if (!Double.isFinite(p)) {
+            return set(p, 0);
+        }
+        double e = Math.fma(hi, bh, -p) + (hi * bl + lo * bh);
+        hi = p + e;
+        lo = e - (hi - p);
+        return this;
+    }
+    
+    DoubleDouble divide(DoubleDouble b) {
+        return divide(b.hi, b.lo);
+    }
+    
+    DoubleDouble divide(double bh, double bl) {
+        double q1 = hi / bh;
+        if (!Double.isFinite(q1)) {
+            return set(q1, 0);
+        }
+        // r = this - q1 * b
+        double p = q1 * bh;
+        double pe = Math.fma(q1, bh, -p) + q1 * bl;
+        double rh = hi - p;
+        double v = rh - hi;
+        double re = (hi - (rh - v)) + (-p - v) + (lo - pe);
+        double q2 = (rh + re) / bh;
+        // r -= q2 * b
+        p = q2 * bh;
+        pe = Math.fma(q2, bh, -p) + q2 * bl;
+        double r2 = rh - p;
+        v = r2 - rh;
+        double r2e = (rh - (r2 - v)) + (-p - v) + (re - pe);
+        double q3 = (r2 + r2e) / bh;
+        
+        double h = q1 + q2;
+        double l = q2 - (h - q1);
+        return set(h, l).add(q3, 0);
+    }
+    
+    DoubleDouble sqrt() {
+        if (!(hi > 0) || Double.isInfinite(hi)) {
+            return set(hi == 0 ? 0 : Math.sqrt(hi), 0);
+        }
+        double x = 1.0 / Math.sqrt(hi);
+        double ax = hi * x;
+        double p = ax * ax;
+        double diff = (hi - p) + (lo - Math.fma(ax, ax, -p));
+        double correction = diff * (x * 0.5);
+        hi = ax + correction;
+        lo = correction - (hi - ax);
+        return this;
+    }
+    
+    // Integer part, rounded toward zero.
+    DoubleDouble truncate() {
+        double h = hi < 0 ? Math.ceil(hi) : Math.floor(hi);
+        if (h != hi) {
+            return set(h, 0);
+        }
+        double l = doubleValue() < 0 ? Math.ceil(lo) : Math.floor(lo);
+        hi = h + l;
+        lo = l - (hi - h);
+        return this;
+    }
+    
+    // Remainder with the sign of the dividend, like the % operator on doubles.
+    DoubleDouble remainder(DoubleDouble b) {
+        DoubleDouble q = scratchS().set(this).divide(b).truncate();
+        return subtract(q.multiply(b));
+    }
+    
+    DoubleDouble exp() {
+        if (hi > 709.8) {
+            return set(Double.POSITIVE_INFINITY, 0);
+        }
+        if (hi < -745.2) {
+            return set(0, 0);
+        }
+        if (hi == 0) {
+            return set(1, 0);
+        }
+        if (Double.isNaN(hi)) {
+            return this;
+        }
+        // x = k ln2 + r, then expm1(r / 2^9) by Taylor and square back up.
+        double k = Math.rint(hi / LN2_HI);
+        subtract(scratchS().set(LN2_HI, LN2_LO).multiply(k, 0));
+        hi = Math.scalb(hi, -EXP_SQUARINGS);
+        lo = Math.scalb(lo, -EXP_SQUARINGS);
+        
+        double rh = hi;
+        double rl = lo;
+        DoubleDouble power = scratchS().set(this);
+        DoubleDouble term = scratchT();
+        for (int n = 2; n < INV_FACT_HI.length; n++) {
+            power.multiply(rh, rl);
+            term.set(power).multiply(INV_FACT_HI[n], INV_FACT_LO[n]);
+            add(term);
+            if (Math.abs(term.hi) <= EPSILON * Math.abs(hi)) break;
+        }
+        // expm1(2y) = expm1(y) * (expm1(y) + 2)
+        for (int i = 0; i < EXP_SQUARINGS; i++) {
+            power.set(this).add(2, 0);
+            multiply(power);
+        }
+        add(1, 0);
+        hi = Math.scalb(hi, (int) k);
+        lo = Math.scalb(lo, (int) k);
+        return this;
+    }
+    
+    // Natural log by one Newton step from the double estimate: y + x e^-y - 1.
+    DoubleDouble ln() {
+        if (!(hi > 0) || Double.isInfinite(hi)) {
+            return set(Math.log(hi), 0);
+        }
+        if (hi == 1 && lo == 0) {
+            return set(0, 0);
+        }
+        double y = Math.log(hi);
+        DoubleDouble correction = scratchT().set(-y, 0).exp();
+        multiply(correction).add(-1, 0).add(y, 0);
+        return this;
+    }
+    
+    DoubleDouble log10() {
+        return ln().divide(LN10_HI, LN10_LO);
+    }
+    
+    DoubleDouble pow(DoubleDouble b) {
+        double n = b.hi;
+        if (b.lo == 0 && n == Math.rint(n) && Math.abs(n) < Integer.MAX_VALUE) {
+            return powInteger((int) n);
+        }
+        if (hi < 0 || Double.isNaN(hi) || Double.isNaN(n)) {
+            return set(Double.NaN, 0);
+        }
+        if (hi == 0) {
+            return set(n > 0 ? 0 : Double.POSITIVE_INFINITY, 0);
+        }
+        return ln().multiply(b).exp();
+    }
+    
+    private DoubleDouble powInteger(int n) {
+        DoubleDouble base = scratchS().set(this);
+        set(1, 0);
+        for (int e = Math.abs(n); e > 0; e >>>= 1) {
+            if ((e & 1) != 0) multiply(base);
+            if (e > 1) base.multiply(base.hi, base.lo);
+        }
+        if (n < 0) {
+            DoubleDouble value = scratchT().set(this);
+            set(1, 0).divide(value);
+        }
+        return this;
+    }
+    
+    // Table lookup for 0! to 170!; other non-integers go through the
+    // BigDecimal gamma function, NaN at the poles.
+    DoubleDouble factorial() {
+        if (!Double.isFinite(hi)) {
+            return set(hi > 0 ? hi : Double.NaN, 0);
+        }
+        if (lo == 0 && hi == Math.rint(hi)) {
+            if (hi < 0) return set(Double.NaN, 0);
+            if (hi > Factorials.MAX_ARGUMENT) return set(Double.POSITIVE_INFINITY, 0);
+            int n = (int) hi;
+            return set(FACTORIAL_HI[n], FACTORIAL_LO[n]);
+        }
+        if (hi > Factorials.MAX_ARGUMENT + 1) {
+            return set(Double.POSITIVE_INFINITY, 0);
+        }
+        return set(DecimalMath.factorial(toBigDecimal(), GAMMA_CONTEXT));
+    }
+    
+    DoubleDouble sin(boolean isDegreeMode) {
+        if (isDegreeMode && exactDegrees(0)) {
+            return this;
+        }
+        return sinCos(isDegreeMode, 0);
+    }
+    
+    DoubleDouble cos(boolean isDegreeMode) {
+        if (isDegreeMode && exactDegrees(90)) {
+            return this;
+        }
+        return sinCos(isDegreeMode, 1);
+    }
+    
+    // NaN at odd multiples of 90 degrees, where tan has a pole.
+    DoubleDouble tan(boolean isDegreeMode) {
+        DoubleDouble cos = scratchT().set(this).cos(isDegreeMode);
+        double ch = cos.hi;
+        double cl = cos.lo;
+        sin(isDegreeMode);
+        if (ch == 0) {
+            return set(Double.NaN, 0);
+        }
+        return divide(ch, cl);
+    }
+    
+    DoubleDouble atan(boolean isDegreeMode) {
+        atanRadians();
+        return isDegreeMode ? toDegrees() : this;
+    }
+    
+    // asin(x) = atan(x / sqrt((1 - x)(1 + x))); NaN outside [-1, 1].
+    DoubleDouble asin(boolean isDegreeMode) {
+        double a = Math.abs(hi);
+        if (!(a <= 1)) {
+            return set(Double.NaN, 0);
+        }
+        if (a == 1 && lo == 0) {
+            set(Math.copySign(PI_HI / 2, hi), Math.copySign(PI_LO / 2, hi));
+        } else {
+            DoubleDouble root = scratchT().set(1, 0).subtract(this);
+            root.multiply(scratchS().set(1, 0).add(this)).sqrt();
+            divide(root).atanRadians();
+        }
+        return isDegreeMode ? toDegrees() : this;
+    }
+    
+    DoubleDouble acos(boolean isDegreeMode) {
+        asin(false).negate().add(PI_HI / 2, PI_LO / 2);
+        return isDegreeMode ? toDegrees() : this;
+    }
+    
+    // One Newton step from Math.atan: y + atan((x cos y - sin y) / (cos y + x sin y)),
+    // where the inner atan is its own argument to double-double precision.
+    private DoubleDouble atanRadians() {
+        if (!Double.isFinite(hi) || hi == 0) {
+            return set(Math.atan(hi), 0);
+        }
+        double y = Math.atan(hi);
+        DoubleDouble sin = scratchS().set(y, 0).sinCos(false, 0);
+        DoubleDouble cos = scratchT().set(y, 0).sinCos(false, 1);
+        double xh = hi;
+        double xl = lo;
+        // numerator = x cos y - sin y, denominator = cos y + x sin y
+        multiply(cos).subtract(sin);
+        sin.multiply(xh, xl).add(cos);
+        return divide(sin).add(y, 0);
+    }
+    
+    // sin (phase 0) or cos (phase 1) after reduction to |r| <= pi/4.
+    private DoubleDouble sinCos(boolean isDegreeMode, int phase) {
+        if (!Double.isFinite(hi)) {
+            return set(Double.NaN, 0);
+        }
+        if (isDegreeMode) {
+            reduceDegrees();
+            multiply(DEGREE_HI, DEGREE_LO);
+        }
+        double j = Math.rint(hi / (PI_HI / 2));
+        subtract(scratchS().set(PI_HI / 2, PI_LO / 2).multiply(j, 0));
+        int quadrant = (int) Math.floorMod((long) j + phase, 4L);
+        
+        if ((quadrant & 1) == 0) {
+            taylor(1);
+        } else {
+            taylor(0);
+        }
+        return quadrant >= 2 ? negate() : this;
+    }
+    
+    // sin (start 1) or cos (start 0) series for a reduced argument.
+    private DoubleDouble taylor(int start) {
+        DoubleDouble square = scratchS().set(this).multiply(hi, lo);
+        DoubleDouble term = scratchT();
+        double xh = hi;
+        double xl = lo;
+        if (start == 0) {
+            set(1, 0);
+            term.set(1, 0);
+        } else {
+            term.set(xh, xl);
+        }
+        for (int n = start + 2; n < INV_FACT_HI.length; n += 2) {
+            term.multiply(square).negate();
+            // term holds x^n; the coefficient is applied separately.
+            double ch = term.hi;
+            double cl = term.lo;
+            term.multiply(INV_FACT_HI[n], INV_FACT_LO[n]);
+            add(term);
+            boolean done = Math.abs(term.hi) <= EPSILON * Math.abs(hi);
+            term.set(ch, cl);
+            if (done) break;
+        }
+        return this;
+    }
+    
+    // Reduces degrees into (-360, 360) exactly.
+    private void reduceDegrees() {
+        double h = hi % 360;
+        double sum = h + lo;
+        double v = sum - h;
+        lo = (h - (sum - v)) + (lo - v);
+        hi = sum;
+    }
+    
+    // sin(x + offset) at multiples of 30 and 90 degrees, where the value is exact.
+    private boolean exactDegrees(double offset) {
+        if (!Double.isFinite(hi) || lo != 0 || hi != Math.rint(hi)) {
+            return false;
+        }
+        int degrees = (int) Math.floorMod((long) ((hi % 360) + offset), 360L);
+        switch (degrees) {
+            case 0: case 180: set(0, 0); return true;
+            case 90: set(1, 0); return true;
+            case 270: set(-1, 0); return true;
+            case 30: case 150: set(0.5, 0); return true;
+            case 210: case 330: set(-0.5, 0); return true;
+            default: return false;
+        }
+    }
+    
+    private DoubleDouble toDegrees() {
+        return multiply(180, 0).divide(PI_HI, PI_LO);
+    }
+    
+    private DoubleDouble scratchS() {
+        if (s == null) s = new DoubleDouble();
+        return s;
+    }
+    
+    private DoubleDouble scratchT() {
+        if (t == null) t = new DoubleDouble();
+        return t;
+    }
+    
+    @Override
+    public String toString() {
+        return isFinite() ? toBigDecimal().round(new MathContext(PRECISION)).toString() : String.valueOf(hi);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package main.java;
+
+import java.math.MathContext;
+import java.util.List;
+
+import static main.java.CompiledExpression.*;
+
+// Evaluates a postfix expression in double-double arithmetic. Operands live
+// in two parallel double arrays (high and low parts) and every operation runs
+// through one reusable accumulator, so nothing is boxed or allocated per step.
+// Errors match the double interpreter, plus NaN from tan at a pole becomes a
+// domain error.
+final class DoubleDoubleEvaluator {
+    private static final MathContext DISPLAY = new MathContext(DoubleDouble.PRECISION);
+    
+    private final double[] hi;
+    private final double[] lo;
+    private final DoubleDouble accumulator = new DoubleDouble();
+    private final DoubleDouble operand = new DoubleDouble();
+    private int sp = -1;
+    
+    private DoubleDoubleEvaluator(int size) {
+        this.hi = new double[size];
+        this.lo = new double[size];
+    }
+    
+    static boolean evaluate(List<String> postfix, List<Integer> positions, boolean isDegreeMode, EvaluationResult result) {
+        return new DoubleDoubleEvaluator(postfix.size()).run(postfix, positions, isDegreeMode, result);
+    }
+    
+    private boolean run(List<String> postfix, List<Integer> positions, boolean isDegreeMode, EvaluationResult result) {
+        DoubleDouble x = accumulator;
+        DoubleDouble y = operand;
+        
+        for (int i = 0; i < postfix.size(); i++) {
+            String token = postfix.get(i);
+            int position = positions.get(i);
+            int opcode = opcodeOf(token);
+            
+            if (opcode == OP_PUSH) {
+                int point = token.indexOf('.');
+                if (token.equals(".") || (point >= 0 && token.indexOf('.', point + 1) >= 0)) {
+                    return result.fail(EvaluationResult.INVALID_NUMBER, position);
+                }
+                x.parse(token);
+                sp++;
+                hi[sp] = x.hi;
+                lo[sp] = x.lo;
+                continue;
+            }
+            if (opcode == OP_LOAD) {
+                return result.fail(EvaluationResult.UNKNOWN_VARIABLE, position);
+            }
+            
+            if (opcode <= OP_MOD) {
+                if (sp < 1) {
+                    return result.fail(EvaluationResult.INVALID_EXPRESSION, position);
+                }
+                y.set(hi[sp], lo[sp]);
+                sp--;
+                x.set(hi[sp], lo[sp]);
+                switch (opcode) {
+                    case OP_ADD: x.add(y); break;
+                    case OP_SUB: x.subtract(y); break;
+                    case OP_MUL: x.multiply(y); break;
+                    case OP_DIV:
+                        if (y.hi == 0) return result.fail(EvaluationResult.DIVISION_BY_ZERO, position);
+                        x.divide(y);
+                        break;
+                    case OP_POW: x.pow(y); break;
+                    case OP_MOD:
+                        if (y.hi == 0) return result.fail(EvaluationResult.DIVISION_BY_ZERO, position);
+                        x.remainder(y);
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode: " + opcode);
+                }
+            } else {
+                if (sp < 0) {
+                    return result.fail(EvaluationResult.INVALID_EXPRESSION, position);
+                }
+                x.set(hi[sp], lo[sp]);
+                switch (opcode) {
+                    case OP_SIN: x.sin(isDegreeMode); break;
+                    case OP_COS: x.cos(isDegreeMode); break;
+                    case OP_TAN:
+                        x.tan(isDegreeMode);
+                        if (Double.isNaN(x.hi) && !Double.isNaN(hi[sp])) {
+                            return result.fail(EvaluationResult.DOMAIN_ERROR, position);
+                        }
+                        break;
+                    case OP_LOG:
+                        if (x.hi <= 0) return result.fail(EvaluationResult.DOMAIN_ERROR, position);
+                        x.log10();
+                        break;
+                    case OP_LN:
+                        if (x.hi <= 0) return result.fail(EvaluationResult.DOMAIN_ERROR, position);
+                        x.ln();
+                        break;
+                    case OP_SQRT:
+                        if (x.hi < 0) return result.fail(EvaluationResult.DOMAIN_ERROR, position);
+                        x.sqrt();
+                        break;
+                    case OP_FACT:
+                        if (Factorials.isPole(x.hi) && x.lo == 0) {
+                            return result.fail(EvaluationResult.DOMAIN_ERROR, position);
+                        }
+                        x.factorial();
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode: " + opcode);
+                }
+            }
+            hi[sp] = x.hi;
+            lo[sp] = x.lo;
+        }
+        
+        if (sp != 0) {
+            return result.fail(EvaluationResult.INVALID_EXPRESSION, -1);
+        }
+        x.set(hi[0], lo[0]);
+        if (x.isFinite()) {
+            result.succeed(x.toBigDecimal().round(DISPLAY));
+        } else {
+            result.succeed(x.hi);
+        }
+        return true;
+    }
+}
\ No newline at end of file
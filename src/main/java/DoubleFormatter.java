@@ -0,0 +1,253 @@
+package main.java;
+
+import java.math.BigInteger;
+
+// Writes doubles as String.format("%.<n>g", x) does, without going through
+// java.util.Formatter: no format string to parse, no Formatter or boxed
+// argument, and the digits land directly in a caller's or a per-thread
+// StringBuilder. Output is always in the root locale ('.' and ASCII digits).
+//
+// Like Formatter on JDK 21, it starts from the shortest decimal that rounds
+// back to the double (Schubfach, as in Double.toString) and rounds that half
+// up to n significant digits. The 126-bit powers of ten Schubfach needs are
+// computed once from BigInteger instead of being pasted in as a table.
+final class DoubleFormatter {
+    private static final int P = 53;
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final long C_TINY = 3;
+    private static final int BQ_MASK = (1 << 11) - 1;
+    private static final long T_MASK = C_MIN - 1;
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long MASK_63 = Long.MAX_VALUE;
+    
+    // 10^-k = beta * 2^r with 2^125 <= beta < 2^126; G holds floor(beta) + 1
+    // for every k in [K_MIN, K_MAX] as a high and a low 63-bit half.
+    private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+    
+    private static final long[] POWERS_OF_TEN = new long[19];
+    
+    private static final ThreadLocal<DoubleFormatter> FORMATTERS = ThreadLocal.withInitial(DoubleFormatter::new);
+    
+    static {
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            BigInteger beta;
+            if (k <= 0) {
+                BigInteger power = BigInteger.TEN.pow(-k);
+                int r = power.bitLength() - 126;
+                beta = r >= 0 ? power.shiftRight(r) : power.shiftLeft(-r);
+            } else {
+                BigInteger power = BigInteger.TEN.pow(k);
+                beta = BigInteger.ONE.shiftLeft(125 + power.bitLength()).divide(power);
+            }
+            BigInteger g = beta.add(BigInteger.ONE);
+            G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+            G[2 * (k - K_MIN) + 1] = g.longValue() & MASK_63;
+        }
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+    
+    private final StringBuilder buffer = new StringBuilder(32);
+    // The last value decomposed: significand * 10^exponent.
+    private long significand;
+    private int exponent;
+    
+    private DoubleFormatter() {
+    }
+    
+    static String format(double value, int digits) {
+        DoubleFormatter formatter = FORMATTERS.get();
+        formatter.buffer.setLength(0);
+        return formatter.appendGeneral(formatter.buffer, value, digits).toString();
+    }
+    
+    static StringBuilder append(StringBuilder sb, double value, int digits) {
+        return FORMATTERS.get().appendGeneral(sb, value, digits);
+    }
+    
+    private StringBuilder appendGeneral(StringBuilder sb, double value, int digits) {
+        if (digits < 1) {
+            throw new IllegalArgumentException("Significant digits must be positive: " + digits);
+        }
+        if (Double.isNaN(value)) {
+            return sb.append("NaN");
+        }
+        if (Double.compare(value, 0.0) < 0) {
+            sb.append('-');
+        }
+        if (Double.isInfinite(value)) {
+            return sb.append("Infinity");
+        }
+        if (value == 0) {
+            significand = 0;
+            exponent = 0;
+        } else {
+            decompose(Math.abs(value));
+        }
+        
+        // Round half up to the requested digits; decimalExponent counts the
+        // digits before the point, as in 0.d1d2... * 10^decimalExponent.
+        long f = significand;
+        int length = f == 0 ? 1 : digitCount(f);
+        if (length > digits) {
+            long unit = POWERS_OF_TEN[length - digits];
+            long rounded = f / unit;
+            if (f % unit >= unit / 2) {
+                rounded++;
+            }
+            exponent += length - digits;
+            f = rounded;
+            length = digits;
+            if (f == POWERS_OF_TEN[digits]) {
+                f /= 10;
+                exponent++;
+            }
+        }
+        int decimalExponent = f == 0 ? 1 : length + exponent;
+        
+        if (f != 0 && (decimalExponent - 1 < -4 || decimalExponent - 1 >= digits)) {
+            appendDigits(sb, f, length, 0, 1);
+            if (digits > 1) {
+                sb.append('.');
+                appendDigits(sb, f, length, 1, digits);
+            }
+            int scientific = decimalExponent - 1;
+            sb.append('e').append(scientific < 0 ? '-' : '+');
+            if (Math.abs(scientific) < 10) {
+                sb.append('0');
+            }
+            return sb.append(Math.abs(scientific));
+        }
+        
+        if (decimalExponent <= 0) {
+            sb.append('0');
+        } else {
+            appendDigits(sb, f, length, 0, decimalExponent);
+        }
+        int fractionDigits = digits - decimalExponent;
+        if (fractionDigits > 0) {
+            sb.append('.');
+            for (int i = decimalExponent; i < 0; i++) {
+                sb.append('0');
+            }
+            int from = Math.max(decimalExponent, 0);
+            appendDigits(sb, f, length, from, from + fractionDigits + Math.min(decimalExponent, 0));
+        }
+        return sb;
+    }
+    
+    // Digits [from, to) of the length-digit number f, counting from the most
+    // significant; positions past the end are zeros.
+    private static void appendDigits(StringBuilder sb, long f, int length, int from, int to) {
+        for (int i = from; i < to; i++) {
+            sb.append(i < length ? (char) ('0' + f / POWERS_OF_TEN[length - 1 - i] % 10) : '0');
+        }
+    }
+    
+    private static int digitCount(long f) {
+        int length = 1;
+        while (length < POWERS_OF_TEN.length && f >= POWERS_OF_TEN[length]) {
+            length++;
+        }
+        return length;
+    }
+    
+    // Shortest decimal that rounds to v (positive and finite), after
+    // Giulietti's Schubfach as used by Double.toString.
+    private void decompose(double v) {
+        long bits = Double.doubleToRawLongBits(v);
+        long t = bits & T_MASK;
+        int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+        if (bq != 0) {
+            int mq = -Q_MIN + 1 - bq;
+            long c = C_MIN | t;
+            // Integers below 2^53 are their own shortest decimal.
+            if (0 < mq && mq < P) {
+                long f = c >> mq;
+                if (f << mq == c) {
+                    significand = f;
+                    exponent = 0;
+                    return;
+                }
+            }
+            decompose(-mq, c, 0);
+        } else if (t < C_TINY) {
+            decompose(Q_MIN, 10 * t, -1);
+        } else {
+            decompose(Q_MIN, t, 0);
+        }
+    }
+    
+    private void decompose(int q, long c, int dk) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+        
+        long g1 = G[2 * (k - K_MIN)];
+        long g0 = G[2 * (k - K_MIN) + 1];
+        
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+        
+        long s = vb >> 2;
+        if (s >= 100) {
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                significand = upin ? sp10 : tp10;
+                exponent = k;
+                return;
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            significand = uin ? s : t;
+        } else {
+            long cmp = vb - ((s + t) << 1);
+            significand = cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t;
+        }
+        exponent = k + dk;
+    }
+    
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+    
+    // floor(e log10 2), floor(e log10 (3/4 * 2)) and floor(e log2 10) for the
+    // exponent ranges a double can reach.
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+    
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+    
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
\ No newline at end of file
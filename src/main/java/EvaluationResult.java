@@ -0,0 +1,147 @@
+package main.java;
+
+import java.math.BigDecimal;
+
+// Reusable outcome holder for the non-throwing tryEvaluate/tryCompile APIs.
+// On failure value is NaN, status says what went wrong and errorPosition is the
+// index of the offending token in getSource(), the expression with whitespace
+// removed (-1 if not applicable); bulk evaluation also sets getErrorRow().
+// Results of DOUBLE_DOUBLE and BIG_DECIMAL evaluation also carry their full
+// precision value in getDecimalValue().
+public final class EvaluationResult {
+    public static final int OK = 0;
+    public static final int EMPTY_EXPRESSION = 1;
+    public static final int UNBALANCED_PARENTHESES = 2;
+    public static final int INVALID_CHARACTER = 3;
+    public static final int INVALID_NUMBER = 4;
+    public static final int UNKNOWN_VARIABLE = 5;
+    public static final int INVALID_EXPRESSION = 6;
+    public static final int DIVISION_BY_ZERO = 7;
+    public static final int DOMAIN_ERROR = 8;
+    
+    private static final String[] MESSAGES = {
+        "OK",
+        "Empty expression",
+        "Unbalanced parentheses",
+        "Invalid character",
+        "Invalid number",
+        "Unknown variable",
+        "Invalid expression",
+        "Division by zero",
+        "Domain error"
+    };
+    
+    private int status;
+    private double value;
+    private BigDecimal decimalValue;
+    private int errorPosition;
+    private int errorRow;
+    private String source;
+    
+    public EvaluationResult() {
+        reset();
+    }
+    
+    public void reset() {
+        status = OK;
+        value = Double.NaN;
+        decimalValue = null;
+        errorPosition = -1;
+        errorRow = -1;
+        source = null;
+    }
+    
+    void succeed(double value) {
+        this.status = OK;
+        this.value = value;
+        this.decimalValue = null;
+        this.errorPosition = -1;
+        this.errorRow = -1;
+    }
+    
+    void succeed(BigDecimal value) {
+        succeed(value.doubleValue());
+        this.decimalValue = value;
+    }
+    
+    boolean fail(int status, int errorPosition) {
+        this.status = status;
+        this.value = Double.NaN;
+        this.decimalValue = null;
+        this.errorPosition = errorPosition;
+        this.errorRow = -1;
+        return false;
+    }
+    
+    void setErrorRow(int errorRow) {
+        this.errorRow = errorRow;
+    }
+    
+    void setSource(String source) {
+        this.source = source;
+    }
+    
+    public boolean isOk() { return status == OK; }
+    public int getStatus() { return status; }
+    public double getValue() { return value; }
+    public BigDecimal getDecimalValue() { return decimalValue; }
+    public int getErrorPosition() { return errorPosition; }
+    public int getErrorRow() { return errorRow; }
+    public String getSource() { return source; }
+    
+    public boolean isSyntaxError() {
+        return status != OK && status < DIVISION_BY_ZERO;
+    }
+    
+    public boolean isMathError() {
+        return status >= DIVISION_BY_ZERO;
+    }
+    
+    // Short status text; never allocates.
+    public String getStatusText() {
+        return statusText(status);
+    }
+    
+    // Detailed message matching the exceptions thrown by the throwing API,
+    // e.g. "Invalid character: $". Only builds a string for failures.
+    public String getMessage() {
+        if (status == OK || source == null || errorPosition < 0 || errorPosition >= source.length()) {
+            return getStatusText();
+        }
+        switch (status) {
+            case INVALID_CHARACTER:
+                return getStatusText() + ": " + source.charAt(errorPosition);
+            case INVALID_NUMBER:
+            case UNKNOWN_VARIABLE:
+                return getStatusText() + ": " + tokenAt(source, errorPosition);
+            default:
+                return getStatusText();
+        }
+    }
+    
+    RuntimeException toException() {
+        return isMathError() ? new ArithmeticException(getMessage()) : new IllegalArgumentException(getMessage());
+    }
+    
+    public static String statusText(int status) {
+        return status >= 0 && status < MESSAGES.length ? MESSAGES[status] : "Unknown status " + status;
+    }
+    
+    private static String tokenAt(String source, int position) {
+        int end = position;
+        boolean numeric = Character.isDigit(source.charAt(position)) || source.charAt(position) == '.';
+        while (end < source.length()) {
+            char c = source.charAt(end);
+            boolean part = numeric ? Character.isDigit(c) || c == '.' : Character.isLetter(c);
+            if (!part) break;
+            end++;
+        }
+        return source.substring(position, end);
+    }
+    
+    @Override
+    public String toString() {
+        return isOk() ? "OK: " + (decimalValue != null ? decimalValue : value) : getMessage() + " at " + errorPosition
+                + (errorRow >= 0 ? " in row " + errorRow : "");
+    }
+}
\ No newline at end of file
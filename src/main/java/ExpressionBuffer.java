@@ -0,0 +1,126 @@
+package main.java;
+
+// Gap buffer holding the expression being edited. The gap sits at the cursor,
+// so inserting or deleting there is O(1) amortized and moving the cursor costs
+// only the distance moved. Read it through CharSequence; toString() copies
+// the whole text and is meant for evaluation, not per-keystroke display.
+public final class ExpressionBuffer implements CharSequence {
+    private static final int INITIAL_CAPACITY = 16;
+    // Buffers grown past this by a paste are released again on clear().
+    private static final int RETAINED_CAPACITY = 4096;
+    
+    private char[] buffer = new char[INITIAL_CAPACITY];
+    private int gapStart;
+    private int gapEnd = INITIAL_CAPACITY;
+    
+    @Override
+    public int length() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+    
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length());
+        }
+        return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+    }
+    
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+    
+    public String substring(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("Range: " + start + "-" + end + ", Length: " + length());
+        }
+        if (end <= gapStart) {
+            return new String(buffer, start, end - start);
+        }
+        int gap = gapEnd - gapStart;
+        if (start >= gapStart) {
+            return new String(buffer, start + gap, end - start);
+        }
+        char[] chars = new char[end - start];
+        System.arraycopy(buffer, start, chars, 0, gapStart - start);
+        System.arraycopy(buffer, gapEnd, chars, gapStart - start, end - gapStart);
+        return new String(chars);
+    }
+    
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+    
+    public int getCursor() {
+        return gapStart;
+    }
+    
+    public void setCursor(int position) {
+        if (position < 0 || position > length()) {
+            throw new IndexOutOfBoundsException("Cursor: " + position + ", Length: " + length());
+        }
+        if (position < gapStart) {
+            int count = gapStart - position;
+            System.arraycopy(buffer, position, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (position > gapStart) {
+            int count = position - gapStart;
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+    
+    public void moveCursor(int delta) {
+        setCursor(Math.max(0, Math.min(length(), gapStart + delta)));
+    }
+    
+    // Inserts text at the cursor and leaves the cursor after it.
+    public void insert(CharSequence text) {
+        int count = text.length();
+        ensureGap(count);
+        if (text instanceof String) {
+            ((String) text).getChars(0, count, buffer, gapStart);
+        } else {
+            for (int i = 0; i < count; i++) {
+                buffer[gapStart + i] = text.charAt(i);
+            }
+        }
+        gapStart += count;
+    }
+    
+    public boolean deleteBackward() {
+        if (gapStart == 0) return false;
+        gapStart--;
+        return true;
+    }
+    
+    public boolean deleteForward() {
+        if (gapEnd == buffer.length) return false;
+        gapEnd++;
+        return true;
+    }
+    
+    public void clear() {
+        if (buffer.length > RETAINED_CAPACITY) {
+            buffer = new char[INITIAL_CAPACITY];
+        }
+        gapStart = 0;
+        gapEnd = buffer.length;
+    }
+    
+    private void ensureGap(int needed) {
+        if (gapEnd - gapStart >= needed) return;
+        int length = length();
+        int capacity = Math.max(buffer.length * 2, length + needed + INITIAL_CAPACITY);
+        char[] grown = new char[capacity];
+        int tail = buffer.length - gapEnd;
+        System.arraycopy(buffer, 0, grown, 0, gapStart);
+        System.arraycopy(buffer, gapEnd, grown, capacity - tail, tail);
+        buffer = grown;
+        gapEnd = capacity - tail;
+    }
+}
\ No newline at end of file
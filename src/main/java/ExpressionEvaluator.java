@@ -1,98 +1,189 @@
 package main.java;
 
+import java.math.MathContext;
 import java.util.*;
 
 public class ExpressionEvaluator {
     
     public static double evaluate(String expression, boolean isDegreeMode) throws IllegalArgumentException {
+        return compile(expression).evaluate(isDegreeMode);
+    }
+    
+    public static boolean tryEvaluate(String expression, boolean isDegreeMode, EvaluationResult result) {
+        CompiledExpression compiled = tryCompile(expression, result);
+        return compiled != null && compiled.tryEvaluate(isDegreeMode, result);
+    }
+    
+    // mathContext is only used by NumericMode.BIG_DECIMAL.
+    public static boolean tryEvaluate(String expression, boolean isDegreeMode, NumericMode mode,
+                                      MathContext mathContext, EvaluationResult result) {
+        if (mode == NumericMode.DOUBLE) {
+            return tryEvaluate(expression, isDegreeMode, result);
+        }
+        List<Integer> positions = new ArrayList<>();
+        List<String> postfix = tryParse(expression, positions, result);
+        if (postfix == null) {
+            return false;
+        }
+        if (mode == NumericMode.DOUBLE_DOUBLE) {
+            return DoubleDoubleEvaluator.evaluate(postfix, positions, isDegreeMode, result);
+        }
+        return DecimalEvaluator.evaluate(postfix, positions, isDegreeMode, mathContext, result);
+    }
+    
+    public static CompiledExpression compile(String expression, String... variables) throws IllegalArgumentException {
+        EvaluationResult result = new EvaluationResult();
+        CompiledExpression compiled = tryCompile(expression, result, variables);
+        if (compiled == null) {
+            throw result.toException();
+        }
+        return compiled;
+    }
+    
+    // Returns null and records the status and position in result instead of throwing.
+    public static CompiledExpression tryCompile(String expression, EvaluationResult result, String... variables) {
+        List<Integer> positions = new ArrayList<>();
+        List<String> postfix = tryParse(expression, positions, result);
+        if (postfix == null) {
+            return null;
+        }
+        return CompiledExpression.lower(result.getSource(), postfix, positions, variables, result);
+    }
+    
+    private static List<String> tryParse(String expression, List<Integer> positions, EvaluationResult result) {
+        result.reset();
         if (expression == null || expression.trim().isEmpty()) {
-            throw new IllegalArgumentException("Empty expression");
+            result.fail(EvaluationResult.EMPTY_EXPRESSION, -1);
+            return null;
         }
         
-        expression = expression.replaceAll("\\s+", "");
-        validateExpression(expression);
-        
-        List<String> postfix = infixToPostfix(expression);
-        
-        return evaluatePostfix(postfix, isDegreeMode);
+        String normalized = normalize(expression);
+        result.setSource(normalized);
+        if (!validateExpression(normalized, result)) {
+            return null;
+        }
+        return infixToPostfix(normalized, positions);
     }
     
-    private static void validateExpression(String expression) {
+    public static String normalize(String expression) {
+        return expression.replaceAll("\\s+", "");
+    }
+    
+    private static boolean validateExpression(String expression, EvaluationResult result) {
         if (expression.isEmpty()) {
-            throw new IllegalArgumentException("Empty expression");
+            return result.fail(EvaluationResult.EMPTY_EXPRESSION, -1);
         }
         
         int parenthesesCount = 0;
-        for (char c : expression.toCharArray()) {
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
             if (c == '(') {
                 parenthesesCount++;
             } else if (c == ')') {
                 parenthesesCount--;
                 if (parenthesesCount < 0) {
-                    throw new IllegalArgumentException("Unbalanced parentheses");
+                    return result.fail(EvaluationResult.UNBALANCED_PARENTHESES, i);
                 }
             }
         }
         
         if (parenthesesCount != 0) {
-            throw new IllegalArgumentException("Unbalanced parentheses");
+            return result.fail(EvaluationResult.UNBALANCED_PARENTHESES, unmatchedOpening(expression));
         }
         
-        String validChars = "0123456789.+-×÷()^%sincotan!lqrt";
-        for (char c : expression.toCharArray()) {
-            if (validChars.indexOf(c) == -1) {
-                throw new IllegalArgumentException("Invalid character: " + c);
+        String validChars = "0123456789.+-×÷()^%!";
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (validChars.indexOf(c) == -1 && !Character.isLetter(c)) {
+                return result.fail(EvaluationResult.INVALID_CHARACTER, i);
             }
         }
+        return true;
     }
     
-    private static List<String> infixToPostfix(String expression) {
+    private static int unmatchedOpening(String expression) {
+        int closing = 0;
+        for (int i = expression.length() - 1; i >= 0; i--) {
+            char c = expression.charAt(i);
+            if (c == ')') {
+                closing++;
+            } else if (c == '(') {
+                if (closing == 0) return i;
+                closing--;
+            }
+        }
+        return -1;
+    }
+    
+    // positions receives, for each postfix token, its index in the expression.
+    private static List<String> infixToPostfix(String expression, List<Integer> positions) {
         List<String> output = new ArrayList<>();
         Stack<String> operators = new Stack<>();
+        Stack<Integer> operatorPositions = new Stack<>();
         
         int i = 0;
         while (i < expression.length()) {
             char c = expression.charAt(i);
             
             if (Character.isDigit(c) || c == '.') {
+                int start = i;
                 StringBuilder number = new StringBuilder();
                 while (i < expression.length() && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
                     number.append(expression.charAt(i));
                     i++;
                 }
                 output.add(number.toString());
+                positions.add(start);
                 continue;
             }
             
             if (Character.isLetter(c)) {
-                StringBuilder function = new StringBuilder();
+                int start = i;
+                StringBuilder identifier = new StringBuilder();
                 while (i < expression.length() && Character.isLetter(expression.charAt(i))) {
-                    function.append(expression.charAt(i));
+                    identifier.append(expression.charAt(i));
                     i++;
                 }
-                operators.push(function.toString());
+                if (isFunction(identifier.toString())) {
+                    operators.push(identifier.toString());
+                    operatorPositions.push(start);
+                } else {
+                    output.add(identifier.toString());
+                    positions.add(start);
+                }
                 continue;
             }
             
             if (c == '(') {
                 operators.push("(");
+                operatorPositions.push(i);
             } else if (c == ')') {
                 while (!operators.isEmpty() && !operators.peek().equals("(")) {
                     output.add(operators.pop());
+                    positions.add(operatorPositions.pop());
                 }
                 if (!operators.isEmpty()) {
                     operators.pop();
+                    operatorPositions.pop();
                 }
                 if (!operators.isEmpty() && isFunction(operators.peek())) {
                     output.add(operators.pop());
+                    positions.add(operatorPositions.pop());
                 }
+            } else if (c == '!') {
+                // Postfix factorial binds tighter than any operator, so it
+                // applies straight to the operand just output.
+                output.add("!");
+                positions.add(i);
             } else if (isOperator(String.valueOf(c))) {
                 while (!operators.isEmpty() && 
                        !operators.peek().equals("(") && 
                        getPrecedence(operators.peek()) >= getPrecedence(String.valueOf(c))) {
                     output.add(operators.pop());
+                    positions.add(operatorPositions.pop());
                 }
                 operators.push(String.valueOf(c));
+                operatorPositions.push(i);
             }
             
             i++;
@@ -100,86 +191,13 @@ public class ExpressionEvaluator {
         
         while (!operators.isEmpty()) {
             output.add(operators.pop());
+            positions.add(operatorPositions.pop());
         }
         
         return output;
     }
     
-    private static double evaluatePostfix(List<String> postfix, boolean isDegreeMode) {
-        Stack<Double> stack = new Stack<>();
-        
-        for (String token : postfix) {
-            if (isNumber(token)) {
-                stack.push(Double.parseDouble(token));
-            } else if (isOperator(token)) {
-                if (stack.size() < 2) {
-                    throw new IllegalArgumentException("Invalid expression");
-                }
-                double b = stack.pop();
-                double a = stack.pop();
-                stack.push(performOperation(a, b, token));
-            } else if (isFunction(token)) {
-                if (stack.isEmpty()) {
-                    throw new IllegalArgumentException("Invalid expression");
-                }
-                double operand = stack.pop();
-                stack.push(performFunction(operand, token, isDegreeMode));
-            }
-        }
-        
-        if (stack.size() != 1) {
-            throw new IllegalArgumentException("Invalid expression");
-        }
-        
-        return stack.pop();
-    }
-    
-    private static double performOperation(double a, double b, String operator) {
-        switch (operator) {
-            case "+":
-                return a + b;
-            case "-":
-                return a - b;
-            case "×":
-                return a * b;
-            case "÷":
-                if (b == 0) throw new ArithmeticException("Division by zero");
-                return a / b;
-            case "^":
-                return Math.pow(a, b);
-            case "%":
-                if (b == 0) throw new ArithmeticException("Division by zero");
-                return a % b;
-            default:
-                throw new IllegalArgumentException("Unknown operator: " + operator);
-        }
-    }
-    
-    private static double performFunction(double operand, String function, boolean isDegreeMode) {
-        double angleInRadians = isDegreeMode ? Math.toRadians(operand) : operand;
-        
-        switch (function) {
-            case "sin":
-                return Math.sin(angleInRadians);
-            case "cos":
-                return Math.cos(angleInRadians);
-            case "tan":
-                return Math.tan(angleInRadians);
-            case "log":
-                if (operand <= 0) throw new ArithmeticException("Domain error");
-                return Math.log10(operand);
-            case "ln":
-                if (operand <= 0) throw new ArithmeticException("Domain error");
-                return Math.log(operand);
-            case "sqrt":
-                if (operand < 0) throw new ArithmeticException("Domain error");
-                return Math.sqrt(operand);
-            default:
-                throw new IllegalArgumentException("Unknown function: " + function);
-        }
-    }
-    
-    private static int getPrecedence(String operator) {
+    static int getPrecedence(String operator) {
         switch (operator) {
             case "+":
             case "-":
@@ -195,22 +213,13 @@ public class ExpressionEvaluator {
         }
     }
     
-    private static boolean isOperator(String token) {
+    static boolean isOperator(String token) {
         return token.equals("+") || token.equals("-") || token.equals("×") || 
                token.equals("÷") || token.equals("^") || token.equals("%");
     }
     
-    private static boolean isFunction(String token) {
+    static boolean isFunction(String token) {
         return token.equals("sin") || token.equals("cos") || token.equals("tan") ||
                token.equals("log") || token.equals("ln") || token.equals("sqrt");
     }
-    
-    private static boolean isNumber(String token) {
-        try {
-            Double.parseDouble(token);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
-    }
 }
\ No newline at end of file
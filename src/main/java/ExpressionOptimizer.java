@@ -0,0 +1,524 @@
+package main.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static main.java.CompiledExpression.*;
+
+// Rewrites a lowered program before it is cached or compiled:
+// folds constant sub-expressions, applies cheap identities and
+// computes repeated sub-terms once into local slots.
+final class ExpressionOptimizer {
+    
+    static final class Program {
+        final int[] code;
+        final int[] positions;
+        final double[] constants;
+        final int maxStackDepth;
+        final int localCount;
+        
+        Program(int[] code, int[] positions, double[] constants, int maxStackDepth, int localCount) {
+            this.code = code;
+            this.positions = positions;
+            this.constants = constants;
+            this.maxStackDepth = maxStackDepth;
+            this.localCount = localCount;
+        }
+    }
+    
+    private static final class Node {
+        final int op;
+        final int operand;
+        final double value;
+        final Node left;
+        final Node right;
+        // Source position for error reporting; not part of node identity.
+        final int position;
+        
+        Node(int op, int operand, double value, Node left, Node right, int position) {
+            this.op = op;
+            this.operand = operand;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.position = position;
+        }
+        
+        boolean isConstant() {
+            return op == OP_PUSH;
+        }
+        
+        boolean isConstant(double v) {
+            return op == OP_PUSH && Double.compare(value, v) == 0;
+        }
+        
+        boolean isLeaf() {
+            return op == OP_PUSH || op == OP_LOAD;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) return false;
+            Node n = (Node) o;
+            return op == n.op && operand == n.operand
+                    && Double.compare(value, n.value) == 0
+                    && left == n.left && right == n.right;
+        }
+        
+        @Override
+        public int hashCode() {
+            int h = op * 31 + operand;
+            h = h * 31 + Double.hashCode(value);
+            h = h * 31 + System.identityHashCode(left);
+            return h * 31 + System.identityHashCode(right);
+        }
+    }
+    
+    // Children are interned before parents, so identity comparison of
+    // children is enough for structural equality of the whole subtree.
+    private final Map<Node, Node> interned = new HashMap<>();
+    // Nodes in the order they were interned; only kept for a Builder.
+    private Node[] internedLog;
+    private int internedLogSize;
+    private final Map<Node, Integer> references = new IdentityHashMap<>();
+    private final Map<Node, Integer> slots = new IdentityHashMap<>();
+    // Pool index of each constant; equal constants are one interned node.
+    private final Map<Node, Integer> constantIndexes = new IdentityHashMap<>();
+    private final List<Integer> code = new ArrayList<>();
+    private final List<Integer> positions = new ArrayList<>();
+    private final List<Double> constants = new ArrayList<>();
+    
+    private ExpressionOptimizer() {
+    }
+    
+    static Program optimize(int[] code, int[] positions, double[] constants) {
+        return new ExpressionOptimizer().run(code, positions, constants);
+    }
+    
+    private Program run(int[] input, int[] inputPositions, double[] inputConstants) {
+        Node[] stack = new Node[input.length];
+        int sp = -1;
+        
+        for (int i = 0; i < input.length; i++) {
+            int opcode = input[i] & OPCODE_MASK;
+            int operand = input[i] >>> OPERAND_SHIFT;
+            int position = inputPositions[i];
+            
+            if (opcode == OP_PUSH) {
+                stack[++sp] = constant(inputConstants[operand], position);
+            } else if (opcode == OP_LOAD) {
+                stack[++sp] = intern(new Node(OP_LOAD, operand, 0, null, null, position));
+            } else if (isBinary(opcode)) {
+                sp--;
+                stack[sp] = simplifyBinary(opcode, stack[sp], stack[sp + 1], position);
+            } else {
+                stack[sp] = simplifyUnary(opcode, stack[sp], position);
+            }
+        }
+        
+        return program(stack[0], interned.size());
+    }
+    
+    // Second pass: lays the DAG under root out as instructions. nodeCount is
+    // at least the number of nodes reachable from root.
+    private Program program(Node root, int nodeCount) {
+        countReferences(root, nodeCount);
+        emit(root, nodeCount);
+        
+        int[] out = new int[code.size()];
+        int[] outPositions = new int[code.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = code.get(i);
+            outPositions[i] = positions.get(i);
+        }
+        double[] pool = new double[constants.size()];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = constants.get(i);
+        }
+        return new Program(out, outPositions, pool, stackDepth(out), slots.size());
+    }
+    
+    private Node simplifyBinary(int op, Node a, Node b, int position) {
+        if (a.isConstant() && b.isConstant() && !failsOn(op, b.value)) {
+            return constant(applyBinary(op, a.value, b.value), position);
+        }
+        
+        switch (op) {
+            case OP_ADD:
+                if (b.isConstant(0)) return a;
+                if (a.isConstant(0)) return b;
+                break;
+            case OP_SUB:
+                if (b.isConstant(0)) return a;
+                break;
+            case OP_MUL:
+                if (b.isConstant(1)) return a;
+                if (a.isConstant(1)) return b;
+                if (a == b && a.op == OP_SQRT) return nonNegative(a.left, a.position);
+                break;
+            case OP_DIV:
+                if (b.isConstant(1)) return a;
+                break;
+            case OP_POW:
+                if (b.isConstant(1)) return a;
+                if (b.isConstant(2)) {
+                    return a.op == OP_SQRT ? nonNegative(a.left, a.position) : intern(new Node(OP_MUL, 0, 0, a, a, position));
+                }
+                break;
+        }
+        return intern(new Node(op, 0, 0, a, b, position));
+    }
+    
+    private Node simplifyUnary(int op, Node x, int position) {
+        boolean foldable = op == OP_LOG || op == OP_LN || op == OP_SQRT || op == OP_FACT;
+        if (foldable && x.isConstant() && !failsOn(op, x.value)) {
+            return constant(applyUnary(op, x.value), position);
+        }
+        return intern(new Node(op, 0, 0, x, null, position));
+    }
+    
+    private Node nonNegative(Node x, int position) {
+        if (x.isConstant() && x.value >= 0) return x;
+        return intern(new Node(OP_NONNEG, 0, 0, x, null, position));
+    }
+    
+    private Node constant(double value, int position) {
+        return intern(new Node(OP_PUSH, 0, value, null, null, position));
+    }
+    
+    private Node intern(Node node) {
+        Node existing = interned.putIfAbsent(node, node);
+        if (existing != null) {
+            return existing;
+        }
+        if (internedLog != null) {
+            if (internedLogSize == internedLog.length) {
+                internedLog = Arrays.copyOf(internedLog, internedLogSize * 2);
+            }
+            internedLog[internedLogSize++] = node;
+        }
+        return node;
+    }
+    
+    // Both passes below walk the DAG with an explicit stack: a generated
+    // formula can be tens of thousands of operators deep, far past what
+    // recursion on a thread stack survives.
+    private void countReferences(Node root, int nodeCount) {
+        Node[] pending = new Node[2 * nodeCount + 1];
+        int top = 0;
+        pending[0] = root;
+        while (top >= 0) {
+            Node node = pending[top--];
+            int count = references.merge(node, 1, Integer::sum);
+            if (count > 1 || node.isLeaf()) {
+                continue;
+            }
+            // x op x is emitted as x, DUP, op and needs no second reference.
+            if (node.right != null && node.right != node.left) {
+                pending[++top] = node.right;
+            }
+            pending[++top] = node.left;
+        }
+    }
+    
+    // Post-order, left before right, in the same order as a recursive walk: a
+    // shared sub-term is stored where it is first emitted and recalled after.
+    private void emit(Node root, int nodeCount) {
+        // A path never visits a node twice, so it is no longer than there are nodes.
+        Node[] path = new Node[nodeCount + 1];
+        // Per path entry: 0 on arrival, 1 once the left child is emitted, 2 once both are.
+        byte[] stage = new byte[path.length];
+        int top = 0;
+        path[0] = root;
+        
+        while (top >= 0) {
+            Node node = path[top];
+            if (stage[top] == 0 && emitShared(node)) {
+                top--;
+                continue;
+            }
+            if (stage[top] == 0) {
+                stage[top] = 1;
+                path[++top] = node.left;
+                stage[top] = 0;
+                continue;
+            }
+            if (stage[top] == 1) {
+                stage[top] = 2;
+                if (node.right != null && node.right != node.left) {
+                    path[++top] = node.right;
+                    stage[top] = 0;
+                    continue;
+                }
+            }
+            
+            if (node.right == node.left) {
+                add(OP_DUP, node.position);
+            }
+            add(node.op, node.position);
+            if (references.get(node) > 1) {
+                int slot = slots.size();
+                slots.put(node, slot);
+                add((slot << OPERAND_SHIFT) | OP_STORE, node.position);
+            }
+            top--;
+        }
+    }
+    
+    // Emits a leaf or the recall of an already computed sub-term; false when
+    // the node's children still have to be emitted.
+    private boolean emitShared(Node node) {
+        if (node.op == OP_PUSH) {
+            Integer index = constantIndexes.get(node);
+            if (index == null) {
+                index = constants.size();
+                constantIndexes.put(node, index);
+                constants.add(node.value);
+            }
+            add((index << OPERAND_SHIFT) | OP_PUSH, node.position);
+            return true;
+        }
+        if (node.op == OP_LOAD) {
+            add((node.operand << OPERAND_SHIFT) | OP_LOAD, node.position);
+            return true;
+        }
+        Integer slot = slots.get(node);
+        if (slot != null) {
+            add((slot << OPERAND_SHIFT) | OP_RECALL, node.position);
+            return true;
+        }
+        return false;
+    }
+    
+    private void add(int instruction, int position) {
+        code.add(instruction);
+        positions.add(position);
+    }
+    
+    // A simplified DAG waiting for its second pass. Nodes never change once
+    // made, so the pass can run on any thread.
+    static final class Tree {
+        private final Node root;
+        private final int nodeCount;
+        
+        private Tree(Node root, int nodeCount) {
+            this.root = root;
+            this.nodeCount = nodeCount;
+        }
+        
+        Program program() {
+            return new ExpressionOptimizer().program(root, nodeCount);
+        }
+    }
+    
+    private static final class StackEntry {
+        final Node node;
+        final StackEntry next;
+        
+        StackEntry(Node node, StackEntry next) {
+            this.node = node;
+            this.next = next;
+        }
+    }
+    
+    // The first pass fed one postfix token at a time, for ExpressionPreview.
+    // After every token it keeps a mark: the node stack (an immutable linked
+    // list, so keeping it is free) and how many nodes had been interned.
+    // Truncating to a mark uninterns the later nodes, which leaves exactly the
+    // state a fresh pass over the shorter prefix would have, so an edit only
+    // rebuilds the nodes after it. Lowering errors are those of
+    // CompiledExpression.lower for a program without variables.
+    static final class Builder {
+        private final ExpressionOptimizer optimizer = new ExpressionOptimizer();
+        private StackEntry stack;
+        private int depth;
+        private int size;
+        
+        // Entry k describes the state after token k.
+        private StackEntry[] stacks = new StackEntry[16];
+        private int[] depths = new int[16];
+        private int[] internedSizes = new int[16];
+        
+        // Index of the first token that failed to lower, or -1.
+        private int errorIndex = -1;
+        private int errorStatus;
+        private int errorPosition;
+        
+        Builder() {
+            optimizer.internedLog = new Node[16];
+        }
+        
+        void add(String token, int position) {
+            if (errorIndex < 0) {
+                lower(token, position);
+            }
+            if (size == stacks.length) {
+                stacks = Arrays.copyOf(stacks, size * 2);
+                depths = Arrays.copyOf(depths, size * 2);
+                internedSizes = Arrays.copyOf(internedSizes, size * 2);
+            }
+            stacks[size] = stack;
+            depths[size] = depth;
+            internedSizes[size] = optimizer.internedLogSize;
+            size++;
+        }
+        
+        private void lower(String token, int position) {
+            int opcode = CompiledExpression.opcodeOf(token);
+            if (opcode == OP_PUSH) {
+                double value = CompiledExpression.parseNumber(token);
+                if (Double.isNaN(value)) {
+                    fail(EvaluationResult.INVALID_NUMBER, position);
+                    return;
+                }
+                stack = new StackEntry(optimizer.constant(value, position), stack);
+                depth++;
+            } else if (opcode == OP_LOAD) {
+                fail(EvaluationResult.UNKNOWN_VARIABLE, position);
+            } else if (isBinary(opcode)) {
+                if (depth < 2) {
+                    fail(EvaluationResult.INVALID_EXPRESSION, position);
+                    return;
+                }
+                Node right = stack.node;
+                stack = stack.next;
+                stack = new StackEntry(optimizer.simplifyBinary(opcode, stack.node, right, position), stack.next);
+                depth--;
+            } else {
+                if (depth < 1) {
+                    fail(EvaluationResult.INVALID_EXPRESSION, position);
+                    return;
+                }
+                stack = new StackEntry(optimizer.simplifyUnary(opcode, stack.node, position), stack.next);
+            }
+        }
+        
+        private void fail(int status, int position) {
+            errorIndex = size;
+            errorStatus = status;
+            errorPosition = position;
+        }
+        
+        // Drops every token after the first `size`.
+        void truncate(int size) {
+            if (size >= this.size) return;
+            this.size = size;
+            stack = size == 0 ? null : stacks[size - 1];
+            depth = size == 0 ? 0 : depths[size - 1];
+            unintern(size == 0 ? 0 : internedSizes[size - 1]);
+            Arrays.fill(stacks, size, stacks.length, null);
+            if (errorIndex >= size) {
+                errorIndex = -1;
+            }
+        }
+        
+        private void unintern(int keep) {
+            for (int i = keep; i < optimizer.internedLogSize; i++) {
+                optimizer.interned.remove(optimizer.internedLog[i]);
+                optimizer.internedLog[i] = null;
+            }
+            optimizer.internedLogSize = keep;
+        }
+        
+        // The first `size` tokens followed by `tail`, without keeping the tail;
+        // null with the error in result if they do not form one expression.
+        Tree tree(int size, String[] tail, int[] tailPositions, int tailLength, EvaluationResult result) {
+            if (errorIndex >= 0 && errorIndex < size) {
+                result.fail(errorStatus, errorPosition);
+                return null;
+            }
+            StackEntry savedStack = stack;
+            int savedDepth = depth;
+            int savedInterned = optimizer.internedLogSize;
+            int savedErrorIndex = errorIndex;
+            int savedErrorStatus = errorStatus;
+            int savedErrorPosition = errorPosition;
+            stack = size == 0 ? null : stacks[size - 1];
+            depth = size == 0 ? 0 : depths[size - 1];
+            errorIndex = -1;
+            try {
+                for (int i = 0; i < tailLength && errorIndex < 0; i++) {
+                    lower(tail[i], tailPositions[i]);
+                }
+                if (errorIndex >= 0) {
+                    result.fail(errorStatus, errorPosition);
+                    return null;
+                }
+                if (depth != 1) {
+                    result.fail(EvaluationResult.INVALID_EXPRESSION, -1);
+                    return null;
+                }
+                return new Tree(stack.node, optimizer.interned.size());
+            } finally {
+                unintern(savedInterned);
+                stack = savedStack;
+                depth = savedDepth;
+                errorIndex = savedErrorIndex;
+                errorStatus = savedErrorStatus;
+                errorPosition = savedErrorPosition;
+            }
+        }
+    }
+    
+    private static int stackDepth(int[] code) {
+        int depth = 0;
+        int max = 0;
+        for (int instruction : code) {
+            int opcode = instruction & OPCODE_MASK;
+            if (opcode == OP_PUSH || opcode == OP_LOAD || opcode == OP_RECALL || opcode == OP_DUP) {
+                depth++;
+            } else if (isBinary(opcode)) {
+                depth--;
+            }
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+    
+    private static boolean isBinary(int opcode) {
+        return opcode >= OP_ADD && opcode <= OP_MOD;
+    }
+    
+    private static boolean failsOn(int op, double operand) {
+        switch (op) {
+            case OP_DIV:
+            case OP_MOD:
+                return operand == 0;
+            case OP_LOG:
+            case OP_LN:
+                return operand <= 0;
+            case OP_SQRT:
+                return operand < 0;
+            case OP_FACT:
+                return Factorials.isPole(operand);
+            default:
+                return false;
+        }
+    }
+    
+    private static double applyBinary(int op, double a, double b) {
+        switch (op) {
+            case OP_ADD: return a + b;
+            case OP_SUB: return a - b;
+            case OP_MUL: return a * b;
+            case OP_DIV: return a / b;
+            case OP_POW: return Math.pow(a, b);
+            case OP_MOD: return a % b;
+            default: throw new IllegalStateException("Bad opcode: " + op);
+        }
+    }
+    
+    private static double applyUnary(int op, double x) {
+        switch (op) {
+            case OP_LOG: return Math.log10(x);
+            case OP_LN: return Math.log(x);
+            case OP_SQRT: return Math.sqrt(x);
+            case OP_FACT: return Factorials.factorial(x);
+            default: throw new IllegalStateException("Bad opcode: " + op);
+        }
+    }
+}
\ No newline at end of file
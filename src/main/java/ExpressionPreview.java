@@ -0,0 +1,358 @@
+package main.java;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// Incremental shunting-yard parse of the expression being typed, used for the
+// live result preview. After every token the parser keeps a checkpoint: how
+// much postfix output exists, the operator stack (an immutable linked list, so
+// saving it is free) and the parenthesis depth. An edit rolls back to the last
+// checkpoint before the edited position and re-parses only the text after it,
+// so typing at the end of a long expression costs O(1) per key. The re-parse
+// itself is deferred until a snapshot is taken, so a burst of edits anywhere
+// in the text is parsed once, from the leftmost change. The postfix output is
+// lowered and simplified as it is produced (ExpressionOptimizer.Builder), with
+// the same rollback, so a snapshot only has the instructions left to lay out.
+//
+// The preview value is that of the longest prefix ending in an operand, with
+// open parentheses closed and a trailing operator ignored: "2×(3+" shows 6.
+public final class ExpressionPreview {
+    
+    private static final class OperatorNode {
+        final String operator;
+        final int position;
+        final OperatorNode next;
+        
+        OperatorNode(String operator, int position, OperatorNode next) {
+            this.operator = operator;
+            this.position = position;
+            this.next = next;
+        }
+    }
+    
+    // What evaluateExpression would evaluate with; snapshots taken with
+    // different settings give different values.
+    public static final class Settings {
+        private final boolean isDegreeMode;
+        private final NumericMode mode;
+        private final MathContext mathContext;
+        private final boolean fastTrig;
+        
+        public Settings(boolean isDegreeMode, NumericMode mode, MathContext mathContext, boolean fastTrig) {
+            this.isDegreeMode = isDegreeMode;
+            this.mode = Objects.requireNonNull(mode);
+            this.mathContext = Objects.requireNonNull(mathContext);
+            this.fastTrig = fastTrig;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Settings)) return false;
+            Settings other = (Settings) o;
+            return isDegreeMode == other.isDegreeMode && mode == other.mode
+                    && mathContext.equals(other.mathContext) && fastTrig == other.fastTrig;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(isDegreeMode, mode, mathContext, fastTrig);
+        }
+    }
+    
+    // A prefix of the expression ready to evaluate, safe to hand to another
+    // thread: the simplified tree in DOUBLE mode, the postfix tokens otherwise.
+    public static final class Snapshot {
+        private final Settings settings;
+        private final ExpressionOptimizer.Tree tree;
+        private final String[] postfix;
+        private final int[] positions;
+        private final int errorStatus;
+        private final int errorPosition;
+        
+        Snapshot(Settings settings, ExpressionOptimizer.Tree tree, String[] postfix, int[] positions,
+                 int errorStatus, int errorPosition) {
+            this.settings = settings;
+            this.tree = tree;
+            this.postfix = postfix;
+            this.positions = positions;
+            this.errorStatus = errorStatus;
+            this.errorPosition = errorPosition;
+        }
+        
+        public boolean isEmpty() {
+            return errorStatus == EvaluationResult.OK && tree == null && postfix == null;
+        }
+        
+        public Settings getSettings() {
+            return settings;
+        }
+        
+        // The value as the display shows it after evaluateExpression.
+        public String format(EvaluationResult result) {
+            BigDecimal decimal = result.getDecimalValue();
+            if (decimal == null) {
+                return CalculatorEngine.formatNumber(result.getValue());
+            }
+            return CalculatorEngine.formatDecimal(decimal, CalculatorEngine.resultContext(settings.mode, settings.mathContext));
+        }
+        
+        // The value evaluateExpression would give for this prefix.
+        public boolean evaluate(EvaluationResult result) {
+            result.reset();
+            if (errorStatus != EvaluationResult.OK) {
+                return result.fail(errorStatus, errorPosition);
+            }
+            if (tree != null) {
+                CompiledExpression compiled = CompiledExpression.of(tree.program());
+                if (settings.fastTrig) {
+                    compiled = compiled.withFastTrig();
+                }
+                return compiled.tryEvaluate(settings.isDegreeMode, result);
+            }
+            if (postfix == null) {
+                return result.fail(EvaluationResult.EMPTY_EXPRESSION, -1);
+            }
+            List<String> tokens = Arrays.asList(postfix);
+            List<Integer> tokenPositions = new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) { return positions[index]; }
+                @Override
+                public int size() { return positions.length; }
+            };
+            if (settings.mode == NumericMode.DOUBLE_DOUBLE) {
+                return DoubleDoubleEvaluator.evaluate(tokens, tokenPositions, settings.isDegreeMode, result);
+            }
+            return DecimalEvaluator.evaluate(tokens, tokenPositions, settings.isDegreeMode, settings.mathContext, result);
+        }
+    }
+    
+    // Per-token checkpoints; entry k describes the state after token k.
+    private int tokenCount;
+    private int[] tokenEnds = new int[16];
+    private int[] outputSizes = new int[16];
+    private int[] depths = new int[16];
+    private OperatorNode[] stacks = new OperatorNode[16];
+    // Index of the last checkpoint at or before k that ends in an operand, or -1.
+    private int[] lastComplete = new int[16];
+    
+    private String[] output = new String[16];
+    private int[] outputPositions = new int[16];
+    private int outputSize;
+    private OperatorNode stack;
+    private int depth;
+    private ExpressionOptimizer.Builder lowered = new ExpressionOptimizer.Builder();
+    
+    private int errorStatus = EvaluationResult.OK;
+    private int errorPosition = -1;
+    private long version;
+    // Leftmost position edited since the last parse; MAX_VALUE if up to date.
+    private int pendingFrom = Integer.MAX_VALUE;
+    
+    public void reset() {
+        tokenCount = 0;
+        outputSize = 0;
+        stack = null;
+        depth = 0;
+        errorStatus = EvaluationResult.OK;
+        errorPosition = -1;
+        pendingFrom = Integer.MAX_VALUE;
+        Arrays.fill(output, null);
+        Arrays.fill(stacks, null);
+        lowered = new ExpressionOptimizer.Builder();
+        version++;
+    }
+    
+    // Records that the text changed from changedFrom on; everything before it
+    // is the same as at the last update.
+    public void update(CharSequence text, int changedFrom) {
+        pendingFrom = Math.min(pendingFrom, changedFrom);
+        version++;
+    }
+    
+    private void sync(CharSequence text) {
+        if (pendingFrom == Integer.MAX_VALUE) return;
+        int keep = tokenCount;
+        while (keep > 0 && tokenEnds[keep - 1] >= pendingFrom) {
+            keep--;
+        }
+        rollback(keep);
+        parse(text, keep == 0 ? 0 : tokenEnds[keep - 1]);
+        pendingFrom = Integer.MAX_VALUE;
+    }
+    
+    private void rollback(int keep) {
+        tokenCount = keep;
+        if (keep == 0) {
+            outputSize = 0;
+            stack = null;
+            depth = 0;
+        } else {
+            outputSize = outputSizes[keep - 1];
+            stack = stacks[keep - 1];
+            depth = depths[keep - 1];
+        }
+        lowered.truncate(outputSize);
+        errorStatus = EvaluationResult.OK;
+        errorPosition = -1;
+    }
+    
+    private void parse(CharSequence text, int i) {
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            
+            int start = i;
+            boolean complete = false;
+            if (Character.isDigit(c) || c == '.') {
+                while (i < length && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) {
+                    i++;
+                }
+                emit(text.subSequence(start, i).toString(), start);
+                complete = true;
+            } else if (Character.isLetter(c)) {
+                while (i < length && Character.isLetter(text.charAt(i))) {
+                    i++;
+                }
+                String identifier = text.subSequence(start, i).toString();
+                if (ExpressionEvaluator.isFunction(identifier)) {
+                    stack = new OperatorNode(identifier, start, stack);
+                } else {
+                    emit(identifier, start);
+                    complete = true;
+                }
+            } else if (c == '(') {
+                stack = new OperatorNode("(", i, stack);
+                depth++;
+                i++;
+            } else if (c == ')') {
+                if (depth == 0) {
+                    fail(EvaluationResult.UNBALANCED_PARENTHESES, i);
+                    return;
+                }
+                while (!stack.operator.equals("(")) {
+                    emit(stack.operator, stack.position);
+                    stack = stack.next;
+                }
+                stack = stack.next;
+                depth--;
+                if (stack != null && ExpressionEvaluator.isFunction(stack.operator)) {
+                    emit(stack.operator, stack.position);
+                    stack = stack.next;
+                }
+                i++;
+                complete = true;
+            } else if (ExpressionEvaluator.isOperator(String.valueOf(c))) {
+                String operator = String.valueOf(c);
+                while (stack != null && !stack.operator.equals("(") &&
+                       ExpressionEvaluator.getPrecedence(stack.operator) >= ExpressionEvaluator.getPrecedence(operator)) {
+                    emit(stack.operator, stack.position);
+                    stack = stack.next;
+                }
+                stack = new OperatorNode(operator, i, stack);
+                i++;
+            } else if (c == '!') {
+                // Postfix factorial applies to the operand just emitted.
+                emit("!", i);
+                i++;
+                complete = tokenCount > 0 && lastComplete[tokenCount - 1] == tokenCount - 1;
+            } else {
+                fail(EvaluationResult.INVALID_CHARACTER, i);
+                return;
+            }
+            checkpoint(i, complete);
+        }
+    }
+    
+    private void emit(String token, int position) {
+        if (outputSize == output.length) {
+            output = Arrays.copyOf(output, outputSize * 2);
+            outputPositions = Arrays.copyOf(outputPositions, outputSize * 2);
+        }
+        output[outputSize] = token;
+        outputPositions[outputSize] = position;
+        outputSize++;
+        lowered.add(token, position);
+    }
+    
+    private void checkpoint(int end, boolean complete) {
+        if (tokenCount == tokenEnds.length) {
+            int size = tokenCount * 2;
+            tokenEnds = Arrays.copyOf(tokenEnds, size);
+            outputSizes = Arrays.copyOf(outputSizes, size);
+            depths = Arrays.copyOf(depths, size);
+            stacks = Arrays.copyOf(stacks, size);
+            lastComplete = Arrays.copyOf(lastComplete, size);
+        }
+        tokenEnds[tokenCount] = end;
+        outputSizes[tokenCount] = outputSize;
+        depths[tokenCount] = depth;
+        stacks[tokenCount] = stack;
+        lastComplete[tokenCount] = complete ? tokenCount : tokenCount > 0 ? lastComplete[tokenCount - 1] : -1;
+        tokenCount++;
+    }
+    
+    private void fail(int status, int position) {
+        errorStatus = status;
+        errorPosition = position;
+    }
+    
+    // The program of the longest complete prefix, with its open parentheses
+    // closed. Runs on the thread that edits the expression; the snapshot can
+    // then be evaluated anywhere. Outside DOUBLE mode the postfix tokens are
+    // copied, since those modes evaluate them directly.
+    public Snapshot snapshot(CharSequence text, Settings settings) {
+        sync(text);
+        if (errorStatus != EvaluationResult.OK) {
+            return new Snapshot(settings, null, null, null, errorStatus, errorPosition);
+        }
+        
+        int checkpoint = tokenCount > 0 ? lastComplete[tokenCount - 1] : -1;
+        if (checkpoint < 0) {
+            return new Snapshot(settings, null, null, null, EvaluationResult.OK, -1);
+        }
+        
+        // Closing every open parenthesis: drop "(" and emit the rest in order.
+        int size = outputSizes[checkpoint];
+        int pending = 0;
+        for (OperatorNode node = stacks[checkpoint]; node != null; node = node.next) {
+            pending++;
+        }
+        String[] tail = new String[pending];
+        int[] tailPositions = new int[pending];
+        int tailLength = 0;
+        for (OperatorNode node = stacks[checkpoint]; node != null; node = node.next) {
+            if (node.operator.equals("(")) continue;
+            tail[tailLength] = node.operator;
+            tailPositions[tailLength] = node.position;
+            tailLength++;
+        }
+        
+        // Lowered in every mode, so every mode rejects the same prefixes.
+        EvaluationResult result = new EvaluationResult();
+        ExpressionOptimizer.Tree tree = lowered.tree(size, tail, tailPositions, tailLength, result);
+        if (tree == null) {
+            return new Snapshot(settings, null, null, null, result.getStatus(), result.getErrorPosition());
+        }
+        if (settings.mode == NumericMode.DOUBLE) {
+            return new Snapshot(settings, tree, null, null, EvaluationResult.OK, -1);
+        }
+        String[] postfix = Arrays.copyOf(output, size + tailLength);
+        int[] positions = Arrays.copyOf(outputPositions, size + tailLength);
+        System.arraycopy(tail, 0, postfix, size, tailLength);
+        System.arraycopy(tailPositions, 0, positions, size, tailLength);
+        return new Snapshot(settings, null, postfix, positions, EvaluationResult.OK, -1);
+    }
+    
+    // Changes with every update, so stale background results can be dropped.
+    public long getVersion() {
+        return version;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package main.java;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ExpressionResultCache {
+    public static final int DEFAULT_CAPACITY = 256;
+    
+    private final LinkedHashMap<String, Double> entries;
+    private final CompiledExpressionCache compiledCache;
+    private int capacity;
+    private long hits;
+    private long misses;
+    
+    public ExpressionResultCache() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public ExpressionResultCache(int capacity) {
+        this(capacity, null);
+    }
+    
+    // Misses compile through compiledCache when given, so engines that share it
+    // also share their compiled programs.
+    public ExpressionResultCache(int capacity, CompiledExpressionCache compiledCache) {
+        this.compiledCache = compiledCache;
+        setCapacity(capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                return size() > ExpressionResultCache.this.capacity;
+            }
+        };
+    }
+    
+    public double evaluate(String expression, boolean isDegreeMode) {
+        EvaluationResult result = new EvaluationResult();
+        if (!tryEvaluate(expression, isDegreeMode, result)) {
+            throw result.toException();
+        }
+        return result.getValue();
+    }
+    
+    public boolean tryEvaluate(String expression, boolean isDegreeMode, EvaluationResult result) {
+        if (capacity == 0) {
+            misses++;
+            return compute(expression, isDegreeMode, result);
+        }
+        
+        String key = (isDegreeMode ? "D:" : "R:") + ExpressionEvaluator.normalize(expression);
+        Double cached = entries.get(key);
+        if (cached != null) {
+            hits++;
+            result.succeed(cached);
+            return true;
+        }
+        
+        misses++;
+        if (!compute(expression, isDegreeMode, result)) {
+            return false;
+        }
+        entries.put(key, result.getValue());
+        return true;
+    }
+    
+    private boolean compute(String expression, boolean isDegreeMode, EvaluationResult result) {
+        if (compiledCache == null) {
+            return ExpressionEvaluator.tryEvaluate(expression, isDegreeMode, result);
+        }
+        return compiledCache.tryEvaluate(expression, isDegreeMode, result);
+    }
+    
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        if (entries != null) {
+            trim();
+        }
+    }
+    
+    private void trim() {
+        var iterator = entries.keySet().iterator();
+        while (entries.size() > capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+    
+    public void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+    }
+    
+    public int getCapacity() { return capacity; }
+    public int size() { return entries.size(); }
+    public long getHitCount() { return hits; }
+    public long getMissCount() { return misses; }
+}
\ No newline at end of file
@@ -0,0 +1,341 @@
+package main.java;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Search index over a CalculationHistory, keyed by entry sequence number.
+//  - text: postings of every 1-, 2- and 3-character substring of the
+//    formatted entry; longer queries intersect their trigrams and verify the
+//    candidates against the entry itself
+//  - operation: postings per operator/function, including those used inside
+//    typed expressions
+//  - result: a sorted run of (result, sequence) pairs plus a small unsorted
+//    tail that is merged in once it grows
+// The index is brought up to date lazily before each query, so recording a
+// calculation costs nothing and only new entries are indexed. Entries that
+// have left the history are skipped and compacted away over time.
+public final class HistoryIndex {
+    private static final int MERGE_THRESHOLD = 1024;
+    private static final int FACTORIAL = CalculationHistory.opcodeOf("x!");
+    
+    private static final class Postings {
+        long[] sequences = new long[4];
+        int start;
+        int end;
+        
+        void add(long sequence) {
+            if (end > start && sequences[end - 1] == sequence) return;
+            if (end == sequences.length) {
+                if (start > sequences.length / 2) {
+                    System.arraycopy(sequences, start, sequences, 0, end - start);
+                    end -= start;
+                    start = 0;
+                } else {
+                    sequences = Arrays.copyOf(sequences, sequences.length * 2);
+                }
+            }
+            sequences[end++] = sequence;
+        }
+        
+        // Drops sequences that are no longer in the history.
+        void expire(long firstSequence) {
+            while (start < end && sequences[start] < firstSequence) {
+                start++;
+            }
+        }
+    }
+    
+    private final CalculationHistory history;
+    private final Map<Long, Postings> grams = new HashMap<>();
+    private final Postings[] operations = new Postings[CalculationHistory.opcodeCount()];
+    
+    private double[] sortedResults = new double[0];
+    private long[] sortedSequences = new long[0];
+    private double[] tailResults = new double[16];
+    private long[] tailSequences = new long[16];
+    private int tailSize;
+    
+    private long indexedUpTo;
+    private long compactedAt;
+    
+    public HistoryIndex(CalculationHistory history) {
+        this.history = history;
+        this.indexedUpTo = history.getFirstSequence();
+    }
+    
+    // Entries whose text contains text (case-insensitive), that use operation
+    // and whose result lies in [minResult, maxResult]. Pass null or NaN to
+    // leave a criterion out. Returns history indices, oldest first; they stay
+    // valid until the history changes.
+    public int[] search(String text, String operation, double minResult, double maxResult) {
+        catchUp();
+        long first = history.getFirstSequence();
+        
+        long[] candidates = null;
+        if (operation != null) {
+            Postings postings = operations[CalculationHistory.opcodeOf(operation)];
+            if (postings == null) return new int[0];
+            postings.expire(first);
+            candidates = Arrays.copyOfRange(postings.sequences, postings.start, postings.end);
+        }
+        if (!Double.isNaN(minResult) || !Double.isNaN(maxResult)) {
+            candidates = intersect(candidates, resultRange(first,
+                    Double.isNaN(minResult) ? Double.NEGATIVE_INFINITY : minResult,
+                    Double.isNaN(maxResult) ? Double.POSITIVE_INFINITY : maxResult));
+        }
+        
+        String needle = text == null ? "" : text.toLowerCase(Locale.ROOT);
+        if (!needle.isEmpty()) {
+            int length = Math.min(needle.length(), 3);
+            for (int i = 0; i + length <= needle.length(); i++) {
+                Postings postings = grams.get(gram(needle, i, length));
+                if (postings == null) return new int[0];
+                postings.expire(first);
+                candidates = intersect(candidates, Arrays.copyOfRange(postings.sequences, postings.start, postings.end));
+                if (candidates.length == 0) return new int[0];
+            }
+        }
+        
+        if (candidates == null) {
+            candidates = new long[history.size()];
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = first + i;
+            }
+        }
+        
+        int[] indices = new int[candidates.length];
+        int count = 0;
+        for (long sequence : candidates) {
+            int index = (int) (sequence - first);
+            // A single gram match is exact; longer needles are verified.
+            boolean verify = needle.length() > 3;
+            if (verify && !history.format(index).toLowerCase(Locale.ROOT).contains(needle)) {
+                continue;
+            }
+            indices[count++] = index;
+        }
+        return Arrays.copyOf(indices, count);
+    }
+    
+    public int[] findByText(String text) {
+        return search(text, null, Double.NaN, Double.NaN);
+    }
+    
+    public int[] findByOperation(String operation) {
+        return search(null, operation, Double.NaN, Double.NaN);
+    }
+    
+    public int[] findByResult(double minResult, double maxResult) {
+        return search(null, null, minResult, maxResult);
+    }
+    
+    private void catchUp() {
+        long first = history.getFirstSequence();
+        long added = history.getAddedCount();
+        if (first >= indexedUpTo) {
+            // Everything indexed so far is gone (cleared or overwritten).
+            reset();
+        }
+        for (long sequence = Math.max(indexedUpTo, first); sequence < added; sequence++) {
+            indexEntry(sequence, (int) (sequence - first));
+        }
+        indexedUpTo = added;
+        
+        if (tailSize > MERGE_THRESHOLD) {
+            mergeTail(first);
+        }
+        if (first - compactedAt > Math.max(MERGE_THRESHOLD, history.size())) {
+            compact(first);
+        }
+    }
+    
+    // Trims postings of entries that have been overwritten since the last pass.
+    private void compact(long first) {
+        grams.values().removeIf(postings -> {
+            postings.expire(first);
+            return postings.start == postings.end;
+        });
+        for (Postings postings : operations) {
+            if (postings != null) {
+                postings.expire(first);
+            }
+        }
+        mergeTail(first);
+        compactedAt = first;
+    }
+    
+    private void reset() {
+        compactedAt = history.getFirstSequence();
+        grams.clear();
+        Arrays.fill(operations, null);
+        sortedResults = new double[0];
+        sortedSequences = new long[0];
+        tailSize = 0;
+    }
+    
+    private void indexEntry(long sequence, int index) {
+        String text = history.format(index).toLowerCase(Locale.ROOT);
+        for (int i = 0; i < text.length(); i++) {
+            for (int length = 1; length <= 3 && i + length <= text.length(); length++) {
+                grams.computeIfAbsent(gram(text, i, length), key -> new Postings()).add(sequence);
+            }
+        }
+        
+        int opcode = history.getOpcode(index);
+        if (opcode == CalculationHistory.EXPRESSION) {
+            indexExpression(history.getExpression(index), sequence);
+        } else {
+            addOperation(opcode, sequence);
+        }
+        
+        double result = history.getResult(index);
+        if (!Double.isNaN(result)) {
+            if (tailSize == tailResults.length) {
+                tailResults = Arrays.copyOf(tailResults, tailSize * 2);
+                tailSequences = Arrays.copyOf(tailSequences, tailSize * 2);
+            }
+            tailResults[tailSize] = result;
+            tailSequences[tailSize] = sequence;
+            tailSize++;
+        }
+    }
+    
+    private void indexExpression(String expression, long sequence) {
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isLetter(c)) {
+                int start = i;
+                while (i + 1 < expression.length() && Character.isLetter(expression.charAt(i + 1))) {
+                    i++;
+                }
+                String name = expression.substring(start, i + 1);
+                if (ExpressionEvaluator.isFunction(name)) {
+                    addOperation(CalculationHistory.opcodeOf(name), sequence);
+                }
+                continue;
+            }
+            switch (c) {
+                case '+': addOperation(0, sequence); break;
+                case '-': addOperation(1, sequence); break;
+                case '×': addOperation(2, sequence); break;
+                case '÷': addOperation(3, sequence); break;
+                case '%': addOperation(4, sequence); break;
+                case '^': addOperation(5, sequence); break;
+                case '!': addOperation(FACTORIAL, sequence); break;
+                default: break;
+            }
+        }
+    }
+    
+    private void addOperation(int opcode, long sequence) {
+        if (operations[opcode] == null) {
+            operations[opcode] = new Postings();
+        }
+        operations[opcode].add(sequence);
+    }
+    
+    // Sorted run and tail together; the result is in sequence order.
+    private long[] resultRange(long first, double min, double max) {
+        int from = lowerBound(sortedResults, min);
+        int to = from;
+        while (to < sortedResults.length && sortedResults[to] <= max) {
+            to++;
+        }
+        long[] matches = new long[to - from + tailSize];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (sortedSequences[i] >= first) {
+                matches[count++] = sortedSequences[i];
+            }
+        }
+        for (int i = 0; i < tailSize; i++) {
+            if (tailResults[i] >= min && tailResults[i] <= max && tailSequences[i] >= first) {
+                matches[count++] = tailSequences[i];
+            }
+        }
+        long[] result = Arrays.copyOf(matches, count);
+        Arrays.sort(result);
+        return result;
+    }
+    
+    // Merges the tail into the sorted run, dropping entries no longer in history.
+    private void mergeTail(long first) {
+        Integer[] order = new Integer[tailSize];
+        for (int i = 0; i < tailSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(tailResults[a], tailResults[b]));
+        
+        double[] results = new double[sortedResults.length + tailSize];
+        long[] sequences = new long[results.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < sortedResults.length || j < tailSize) {
+            boolean takeSorted = j == tailSize
+                    || (i < sortedResults.length && Double.compare(sortedResults[i], tailResults[order[j]]) <= 0);
+            double result;
+            long sequence;
+            if (takeSorted) {
+                result = sortedResults[i];
+                sequence = sortedSequences[i++];
+            } else {
+                result = tailResults[order[j]];
+                sequence = tailSequences[order[j++]];
+            }
+            if (sequence >= first) {
+                results[count] = result;
+                sequences[count++] = sequence;
+            }
+        }
+        sortedResults = Arrays.copyOf(results, count);
+        sortedSequences = Arrays.copyOf(sequences, count);
+        tailSize = 0;
+    }
+    
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // Both inputs sorted ascending; null means "no constraint yet".
+    private static long[] intersect(long[] a, long[] b) {
+        if (a == null) return b;
+        long[] out = new long[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+    
+    // The characters, 16 bits each, under the length in the top bits.
+    private static long gram(String text, int i, int length) {
+        long key = length;
+        for (int j = i; j < i + length; j++) {
+            key = (key << 16) | text.charAt(j);
+        }
+        return key;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,326 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Append-only binary journal of calculation history and the memory register,
+// written through a memory-mapped file.
+//
+// Layout: a 64-byte header (magic, version, end offset, entry count, memory
+// value) followed by records of the form [int length][payload][int length].
+// The trailing length lets the newest entries be read backwards from the end
+// without parsing the rest of the file. Payload is opcode (byte), left, right
+// and result (doubles) and, for expression entries, the UTF-8 expression.
+//
+// Records land in the page cache as soon as they are written, so a process
+// crash loses nothing. A background thread forces dirty ranges to disk every
+// flush interval, so appends never wait for fsync; an OS crash can lose at
+// most that interval. The end offset is published only after a record is
+// complete, so a torn record is ignored on reload. A single mapping limits the
+// journal to 2 GB, about 50 million calculations; when it is full, or cannot
+// grow, it is compacted down to the newest entries since the last clear.
+public final class HistoryJournal implements AutoCloseable {
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    
+    private static final int MAGIC = 0x43414C43;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int END_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int MEMORY_OFFSET = 24;
+    private static final int FIXED_PAYLOAD = 1 + 3 * Double.BYTES;
+    private static final int INITIAL_SIZE = 1 << 20;
+    private static final int MAX_GROWTH = 64 << 20;
+    private static final int COPY_CHUNK = 64 << 10;
+    
+    // Written by clearHistory(); replay stops at the newest one.
+    private static final int CLEARED = CalculationHistory.CLEARED;
+    
+    private final FileChannel channel;
+    private final int maxSize;
+    private volatile MappedByteBuffer buffer;
+    private int end;
+    private long count;
+    
+    private final ScheduledExecutorService flusher;
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo;
+    private boolean headerDirty;
+    private boolean closed;
+    
+    private HistoryJournal(FileChannel channel, long flushIntervalMillis, int maxSize) throws IOException {
+        this.channel = channel;
+        this.maxSize = maxSize;
+        
+        long size = channel.size();
+        if (size == 0) {
+            map(Math.min(INITIAL_SIZE, maxSize));
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            end = HEADER_SIZE;
+            writeHeader();
+        } else {
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a history journal");
+            }
+            map((int) size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a history journal");
+            }
+            end = (int) buffer.getLong(END_OFFSET);
+            count = buffer.getLong(COUNT_OFFSET);
+            if (end < HEADER_SIZE || end > size) {
+                throw new IOException("Corrupt history journal header");
+            }
+        }
+        
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public static HistoryJournal open(Path path) throws IOException {
+        return open(path, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+    
+    public static HistoryJournal open(Path path, long flushIntervalMillis) throws IOException {
+        return open(path, flushIntervalMillis, Integer.MAX_VALUE);
+    }
+    
+    // maxSize caps the file below the 2 GB a mapping allows.
+    static HistoryJournal open(Path path, long flushIntervalMillis, int maxSize) throws IOException {
+        if (maxSize < HEADER_SIZE + 2 * Integer.BYTES + FIXED_PAYLOAD) {
+            throw new IllegalArgumentException("Journal size limit too small: " + maxSize);
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() == null) {
+                throw new IOException("History journal is in use: " + path);
+            }
+            return new HistoryJournal(channel, flushIntervalMillis, maxSize);
+        } catch (OverlappingFileLockException e) {
+            channel.close();
+            throw new IOException("History journal is in use: " + path);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private void map(int size) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        buffer = mapped;
+    }
+    
+    synchronized void append(int opcode, double left, double right, double result, String expression) {
+        if (closed) return;
+        byte[] text = expression == null ? null : expression.getBytes(StandardCharsets.UTF_8);
+        int payload = FIXED_PAYLOAD + (text == null ? 0 : text.length);
+        int recordSize = payload + 2 * Integer.BYTES;
+        if (!ensureCapacity(recordSize)) {
+            // The calculation itself succeeded; only its journal entry is lost.
+            System.err.println("History journal is full, entry not saved");
+            return;
+        }
+        
+        MappedByteBuffer out = buffer;
+        int position = end;
+        out.putInt(position, payload);
+        out.put(position + 4, (byte) opcode);
+        out.putDouble(position + 5, left);
+        out.putDouble(position + 13, right);
+        out.putDouble(position + 21, result);
+        if (text != null) {
+            out.put(position + 4 + FIXED_PAYLOAD, text);
+        }
+        out.putInt(position + 4 + payload, payload);
+        
+        end = position + recordSize;
+        if (opcode != CLEARED) {
+            count++;
+        }
+        markDirty(position, end);
+        writeHeader();
+    }
+    
+    synchronized void appendCleared() {
+        append(CLEARED, 0, 0, 0, null);
+    }
+    
+    public synchronized void setMemoryValue(double value) {
+        if (closed) return;
+        buffer.putDouble(MEMORY_OFFSET, value);
+        headerDirty = true;
+    }
+    
+    public synchronized double getMemoryValue() {
+        return buffer.getDouble(MEMORY_OFFSET);
+    }
+    
+    // Calculations ever journaled, including ones cleared since.
+    public synchronized long getEntryCount() {
+        return count;
+    }
+    
+    public synchronized long getSizeInBytes() {
+        return end;
+    }
+    
+    // Loads up to `limit` of the newest entries since the last clear into
+    // history, oldest first. Walks back over record trailers, so the cost
+    // depends on `limit`, not on the size of the journal.
+    public synchronized int replay(CalculationHistory history, int limit) {
+        MappedByteBuffer in = buffer;
+        int start = end;
+        int found = 0;
+        while (found < limit && start > HEADER_SIZE) {
+            int payload = in.getInt(start - 4);
+            int recordStart = start - payload - 2 * Integer.BYTES;
+            if (payload < FIXED_PAYLOAD || recordStart < HEADER_SIZE || in.getInt(recordStart) != payload) {
+                break;
+            }
+            if (in.get(recordStart + 4) == CLEARED) {
+                break;
+            }
+            start = recordStart;
+            found++;
+        }
+        
+        for (int position = start; position < end; ) {
+            int payload = in.getInt(position);
+            int opcode = in.get(position + 4);
+            String expression = null;
+            if (payload > FIXED_PAYLOAD) {
+                byte[] text = new byte[payload - FIXED_PAYLOAD];
+                in.get(position + 4 + FIXED_PAYLOAD, text);
+                expression = new String(text, StandardCharsets.UTF_8);
+            }
+            history.restore(opcode, in.getDouble(position + 5), in.getDouble(position + 13),
+                            in.getDouble(position + 21), expression);
+            position += payload + 2 * Integer.BYTES;
+        }
+        return found;
+    }
+    
+    private boolean ensureCapacity(int recordSize) {
+        long required = (long) end + recordSize;
+        if (required <= buffer.capacity()) return true;
+        if (required <= maxSize) {
+            long grown = buffer.capacity() + Math.min(buffer.capacity(), MAX_GROWTH);
+            try {
+                map((int) Math.min(maxSize, Math.max(required, grown)));
+                return true;
+            } catch (IOException e) {
+                System.err.println("Failed to grow history journal: " + e.getMessage());
+            }
+        }
+        compact();
+        return (long) end + recordSize <= buffer.capacity();
+    }
+    
+    // Moves the newest records since the last clear, up to a quarter of the
+    // mapping, to the front. The journal is published as empty while they are
+    // copied, so a crash in between loses the history but never garbles it.
+    private void compact() {
+        MappedByteBuffer out = buffer;
+        int keep = out.capacity() / 4;
+        int start = end;
+        while (start > HEADER_SIZE) {
+            int payload = out.getInt(start - 4);
+            int recordStart = start - payload - 2 * Integer.BYTES;
+            if (recordStart < HEADER_SIZE || end - recordStart > keep || out.get(recordStart + 4) == CLEARED) {
+                break;
+            }
+            start = recordStart;
+        }
+        int length = end - start;
+        
+        end = HEADER_SIZE;
+        writeHeader();
+        // Forward copy: the destination is below the source.
+        byte[] chunk = new byte[Math.min(COPY_CHUNK, Math.max(length, 1))];
+        for (int copied = 0; copied < length; copied += chunk.length) {
+            int size = Math.min(chunk.length, length - copied);
+            out.get(start + copied, chunk, 0, size);
+            out.put(HEADER_SIZE + copied, chunk, 0, size);
+        }
+        end = HEADER_SIZE + length;
+        markDirty(HEADER_SIZE, end);
+        writeHeader();
+    }
+    
+    private void writeHeader() {
+        buffer.putLong(END_OFFSET, end);
+        buffer.putLong(COUNT_OFFSET, count);
+        headerDirty = true;
+    }
+    
+    private void markDirty(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+    
+    // Forces pending changes to disk. Runs on the flush thread; the fsync
+    // itself happens outside the lock so appends are never held up by it.
+    public void flush() {
+        MappedByteBuffer out;
+        int from;
+        int to;
+        boolean header;
+        synchronized (this) {
+            if (closed || (!headerDirty && dirtyFrom == Integer.MAX_VALUE)) return;
+            out = buffer;
+            from = dirtyFrom;
+            to = dirtyTo;
+            header = headerDirty;
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = 0;
+            headerDirty = false;
+        }
+        if (from < to) {
+            out.force(from, to - from);
+        }
+        if (header) {
+            out.force(0, HEADER_SIZE);
+        }
+    }
+    
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close history journal: " + e.getMessage());
+            }
+        }
+    }
+}
\ No newline at end of file
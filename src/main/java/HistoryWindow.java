@@ -1,17 +1,28 @@
 package main.java;
 
 import java.awt.*;
-import java.util.List;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
+// Modeless so it can follow calculations live. The list is virtualized: rows
+// have a fixed size and the model formats an entry only when it is painted.
 public class HistoryWindow extends JDialog {
     private CalculatorEngine engine;
-    private JTextArea historyArea;
+    private HistoryListModel historyModel;
+    private JList<String> historyList;
+    private JLabel summaryLabel;
+    private JTextField searchField;
+    private JComboBox<String> operationBox;
+    private JTextField minResultField;
+    private JTextField maxResultField;
     private JButton clearHistoryButton;
     private JButton closeButton;
     
     public HistoryWindow(JFrame parent, CalculatorEngine engine) {
-        super(parent, "Calculation History", true);
+        super(parent, "Calculation History", false);
         this.engine = engine;
         initializeComponents();
         setupLayout();
@@ -19,12 +30,104 @@ public class HistoryWindow extends JDialog {
         updateHistoryDisplay();
     }
     
+    private static final class HistoryListModel extends AbstractListModel<String> implements CalculationHistory.Listener {
+        private final CalculationHistory history;
+        private int size;
+        // History indices shown while a search is active; null shows all.
+        private int[] rows;
+        
+        HistoryListModel(CalculationHistory history) {
+            this.history = history;
+            this.size = history.size();
+        }
+        
+        @Override
+        public int getSize() {
+            return size;
+        }
+        
+        @Override
+        public String getElementAt(int index) {
+            int entry = rows == null ? index : rows[index];
+            String number = Integer.toString(entry + 1);
+            StringBuilder sb = new StringBuilder(40);
+            for (int i = number.length(); i < 3; i++) {
+                sb.append(' ');
+            }
+            return history.appendTo(sb.append(number).append(". "), entry).toString();
+        }
+        
+        boolean isFiltered() {
+            return rows != null;
+        }
+        
+        void setRows(int[] rows) {
+            this.rows = rows;
+            resize(rows == null ? history.size() : rows.length);
+        }
+        
+        @Override
+        public void entryAdded(CalculationHistory history, boolean droppedOldest) {
+            if (droppedOldest) {
+                // Every row shifts up by one; only visible rows get repainted.
+                fireContentsChanged(this, 0, size - 1);
+            } else {
+                size++;
+                fireIntervalAdded(this, size - 1, size - 1);
+            }
+        }
+        
+        @Override
+        public void historyReset(CalculationHistory history) {
+            rows = null;
+            resize(history.size());
+        }
+        
+        private void resize(int newSize) {
+            int oldSize = size;
+            size = newSize;
+            if (oldSize > size) {
+                fireIntervalRemoved(this, size, oldSize - 1);
+            } else if (size > oldSize) {
+                fireIntervalAdded(this, oldSize, size - 1);
+            }
+            if (size > 0) {
+                fireContentsChanged(this, 0, size - 1);
+            }
+        }
+    }
+    
     private void initializeComponents() {
-        historyArea = new JTextArea(15, 40);
-        historyArea.setEditable(false);
-        historyArea.setFont(new Font("Courier New", Font.PLAIN, 12));
-        historyArea.setBackground(new Color(248, 248, 248));
-        historyArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        historyModel = new HistoryListModel(engine.getCalculationHistory());
+        
+        historyList = new JList<>(historyModel);
+        historyList.setFont(new Font("Courier New", Font.PLAIN, 12));
+        historyList.setBackground(new Color(248, 248, 248));
+        historyList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        historyList.setVisibleRowCount(15);
+        // Fixed row size keeps JList from measuring every entry.
+        historyList.setFixedCellHeight(historyList.getFontMetrics(historyList.getFont()).getHeight() + 2);
+        historyList.setFixedCellWidth(historyList.getFontMetrics(historyList.getFont()).charWidth('0') * 60);
+        historyList.setFocusable(false);
+        
+        summaryLabel = new JLabel();
+        summaryLabel.setFont(new Font("Courier New", Font.PLAIN, 12));
+        summaryLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        
+        searchField = new JTextField(12);
+        searchField.setToolTipText("Text contained in the calculation");
+        
+        String[] operations = CalculationHistory.operations();
+        String[] choices = new String[operations.length + 1];
+        choices[0] = "Any";
+        System.arraycopy(operations, 0, choices, 1, operations.length);
+        operationBox = new JComboBox<>(choices);
+        operationBox.setToolTipText("Operator or function used");
+        
+        minResultField = new JTextField(5);
+        minResultField.setToolTipText("Smallest result");
+        maxResultField = new JTextField(5);
+        maxResultField.setToolTipText("Largest result");
         
         clearHistoryButton = new JButton("Clear History");
         clearHistoryButton.setFont(new Font("Arial", Font.BOLD, 12));
@@ -45,16 +148,33 @@ public class HistoryWindow extends JDialog {
         titleLabel.setForeground(Color.WHITE);
         titlePanel.add(titleLabel);
         
-        JScrollPane scrollPane = new JScrollPane(historyArea);
+        JScrollPane scrollPane = new JScrollPane(historyList);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(searchField);
+        searchPanel.add(operationBox);
+        searchPanel.add(new JLabel("Result:"));
+        searchPanel.add(minResultField);
+        searchPanel.add(new JLabel("to"));
+        searchPanel.add(maxResultField);
+        
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.add(searchPanel, BorderLayout.NORTH);
+        headerPanel.add(summaryLabel, BorderLayout.SOUTH);
+        
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(headerPanel, BorderLayout.NORTH);
+        centerPanel.add(scrollPane, BorderLayout.CENTER);
+        
         JPanel buttonPanel = new JPanel(new FlowLayout());
         buttonPanel.add(clearHistoryButton);
         buttonPanel.add(closeButton);
         
         add(titlePanel, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
+        add(centerPanel, BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
         
         pack();
@@ -73,31 +193,107 @@ public class HistoryWindow extends JDialog {
             );
             
             if (result == JOptionPane.YES_OPTION) {
-                engine.getHistory().clear();
+                engine.clearHistory();
                 updateHistoryDisplay();
             }
         });
         
         closeButton.addActionListener(e -> dispose());
+        
+        CalculationHistory.Listener updater = new CalculationHistory.Listener() {
+            @Override
+            public void entryAdded(CalculationHistory history, boolean droppedOldest) {
+                boolean atEnd = isLastRowVisible();
+                if (historyModel.isFiltered()) {
+                    applyFilter();
+                } else {
+                    historyModel.entryAdded(history, droppedOldest);
+                }
+                updateSummary();
+                if (atEnd) {
+                    scrollToEnd();
+                }
+            }
+            
+            @Override
+            public void historyReset(CalculationHistory history) {
+                historyModel.historyReset(history);
+                applyFilter();
+            }
+        };
+        engine.getCalculationHistory().addListener(updater);
+        
+        DocumentListener filterUpdater = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { applyFilter(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { applyFilter(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { applyFilter(); }
+        };
+        searchField.getDocument().addDocumentListener(filterUpdater);
+        minResultField.getDocument().addDocumentListener(filterUpdater);
+        maxResultField.getDocument().addDocumentListener(filterUpdater);
+        operationBox.addActionListener(e -> applyFilter());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                engine.getCalculationHistory().removeListener(updater);
+            }
+        });
     }
     
     public void updateHistoryDisplay() {
-        List<String> history = engine.getHistory();
-        StringBuilder sb = new StringBuilder();
+        historyModel.historyReset(engine.getCalculationHistory());
+        applyFilter();
+        scrollToEnd();
+    }
+    
+    // Runs the search through the engine's history index; an empty form
+    // shows the whole history.
+    private void applyFilter() {
+        String text = searchField.getText().trim();
+        String operation = operationBox.getSelectedIndex() > 0 ? (String) operationBox.getSelectedItem() : null;
+        double minResult = parseBound(minResultField.getText());
+        double maxResult = parseBound(maxResultField.getText());
         
-        if (history.isEmpty()) {
-            sb.append("No calculations performed yet.\n\n");
-            sb.append("Perform some calculations to see them here!");
+        if (text.isEmpty() && operation == null && Double.isNaN(minResult) && Double.isNaN(maxResult)) {
+            historyModel.setRows(null);
         } else {
-            sb.append("Total Calculations: ").append(history.size()).append("\n");
-            sb.append("═".repeat(50)).append("\n\n");
-            
-            for (int i = 0; i < history.size(); i++) {
-                sb.append(String.format("%3d. %s\n", i + 1, history.get(i)));
-            }
+            historyModel.setRows(engine.searchHistory(text, operation, minResult, maxResult));
+        }
+        updateSummary();
+    }
+    
+    private static double parseBound(String text) {
+        try {
+            return text.isBlank() ? Double.NaN : Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+    
+    private void updateSummary() {
+        int size = historyModel.getSize();
+        int total = engine.getCalculationHistory().size();
+        if (historyModel.isFiltered()) {
+            summaryLabel.setText("Matches: " + size + " of " + total);
+        } else if (size == 0) {
+            summaryLabel.setText("<html>No calculations performed yet.<br><br>Perform some calculations to see them here!</html>");
+        } else {
+            summaryLabel.setText("Total Calculations: " + size);
+        }
+    }
+    
+    private boolean isLastRowVisible() {
+        int size = historyModel.getSize();
+        return size == 0 || historyList.getLastVisibleIndex() >= size - 1 || !historyList.isShowing();
+    }
+    
+    private void scrollToEnd() {
+        int size = historyModel.getSize();
+        if (size > 0) {
+            historyList.ensureIndexIsVisible(size - 1);
         }
-        
-        historyArea.setText(sb.toString());
-        historyArea.setCaretPosition(historyArea.getDocument().getLength());
     }
 }
\ No newline at end of file
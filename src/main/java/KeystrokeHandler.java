@@ -0,0 +1,279 @@
+package main.java;
+
+import java.awt.event.KeyEvent;
+
+// The engine side of CalculatorGUI.keyPressed, kept free of Swing components so
+// recorded keystroke sessions can be replayed headless through the same calls.
+public final class KeystrokeHandler {
+    
+    private KeystrokeHandler() {
+    }
+    
+    // Returns true when the key changed engine state and the display needs a refresh.
+    public static boolean handle(CalculatorEngine engine, char key, int keyCode, boolean control, boolean shift) {
+        if (Character.isDigit(key)) {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression(String.valueOf(key));
+            } else {
+                engine.inputDigit(Character.getNumericValue(key));
+            }
+            return true;
+        }
+        else if (key == '+' || key == '-' || key == '*' || key == '/' || key == '^' || key == '%') {
+            String operator = String.valueOf(key);
+            if (key == '*') operator = "×";
+            if (key == '/') operator = "÷";
+            
+            if (engine.isExpressionMode()) {
+                engine.addToExpression(operator);
+            } else {
+                engine.setOperator(operator);
+            }
+            return true;
+        }
+        else if (key == '!') {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression("!");
+            } else {
+                engine.performScientificOperation("x!");
+            }
+            return true;
+        }
+        else if (key == '(' || key == ')') {
+            engine.addToExpression(String.valueOf(key));
+            return true;
+        }
+        else if (key == '.' || key == ',') {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression(".");
+            } else {
+                engine.inputDecimal();
+            }
+            return true;
+        }
+        else if (key == '=' || keyCode == KeyEvent.VK_ENTER) {
+            if (engine.isExpressionMode()) {
+                engine.evaluateExpression();
+            } else {
+                engine.calculate();
+            }
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_BACK_SPACE) {
+            if (engine.isExpressionMode()) {
+                engine.backspaceExpression();
+            } else {
+                engine.backspace();
+            }
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_ESCAPE || key == 'c' || key == 'C') {
+            engine.clear();
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_DELETE) {
+            // Inside an expression Delete removes the character after the cursor.
+            if (!engine.deleteExpressionForward()) {
+                engine.clear();
+            }
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_LEFT || keyCode == KeyEvent.VK_RIGHT ||
+                 keyCode == KeyEvent.VK_HOME || keyCode == KeyEvent.VK_END) {
+            if (!engine.isExpressionMode()) {
+                return false;
+            }
+            if (keyCode == KeyEvent.VK_LEFT) {
+                engine.moveExpressionCursor(-1);
+            } else if (keyCode == KeyEvent.VK_RIGHT) {
+                engine.moveExpressionCursor(1);
+            } else if (keyCode == KeyEvent.VK_HOME) {
+                engine.setExpressionCursor(0);
+            } else {
+                engine.setExpressionCursor(engine.getExpressionLength());
+            }
+            return true;
+        }
+        else if (key == 's' || key == 'S') {
+            if (control) {
+                if (engine.isExpressionMode()) {
+                    engine.addToExpression("sin(");
+                } else {
+                    engine.performScientificOperation("sin");
+                }
+                return true;
+            }
+            return false;
+        }
+        else if (key == 'q' || key == 'Q') {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression("sqrt(");
+            } else {
+                engine.performScientificOperation("sqrt");
+            }
+            return true;
+        }
+        else if (key == 'l' || key == 'L') {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression("log(");
+            } else {
+                engine.performScientificOperation("log");
+            }
+            return true;
+        }
+        else if (key == 'n' || key == 'N') {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression("ln(");
+            } else {
+                engine.performScientificOperation("ln");
+            }
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_M && control) {
+            if (shift) {
+                engine.memoryRecall();
+            } else {
+                engine.memoryStore();
+            }
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_R && control) {
+            engine.memoryRecall();
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_P && control) {
+            if (engine.isExpressionMode()) {
+                engine.addToExpression("%");
+            } else {
+                engine.performPercentage();
+            }
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_D && control) {
+            engine.toggleAngleMode();
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_T && control) {
+            engine.toggleFastTrig();
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_B && control) {
+            engine.nextNumericMode();
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_F9 || (key == '_' && shift)) {
+            engine.toggleSign();
+            return true;
+        }
+        else if (keyCode == KeyEvent.VK_E && control) {
+            if (!engine.isExpressionMode()) {
+                engine.addToExpression("");
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    // Session token for a key press: a printable character as itself, or
+    // "ctrl+"/"shift+" prefixes followed by a key name such as ENTER or M.
+    public static String toToken(char key, int keyCode, boolean control, boolean shift) {
+        if (!control && key != KeyEvent.CHAR_UNDEFINED && key > ' ' && key != 0x7F) {
+            return String.valueOf(key);
+        }
+        StringBuilder token = new StringBuilder();
+        if (control) token.append("ctrl+");
+        if (shift) token.append("shift+");
+        switch (keyCode) {
+            case KeyEvent.VK_ENTER: return token.append("ENTER").toString();
+            case KeyEvent.VK_BACK_SPACE: return token.append("BACKSPACE").toString();
+            case KeyEvent.VK_ESCAPE: return token.append("ESC").toString();
+            case KeyEvent.VK_DELETE: return token.append("DELETE").toString();
+            case KeyEvent.VK_LEFT: return token.append("LEFT").toString();
+            case KeyEvent.VK_RIGHT: return token.append("RIGHT").toString();
+            case KeyEvent.VK_HOME: return token.append("HOME").toString();
+            case KeyEvent.VK_END: return token.append("END").toString();
+            default:
+                if (keyCode >= KeyEvent.VK_F1 && keyCode <= KeyEvent.VK_F12) {
+                    return token.append('F').append(keyCode - KeyEvent.VK_F1 + 1).toString();
+                }
+                if (keyCode >= KeyEvent.VK_A && keyCode <= KeyEvent.VK_Z) {
+                    return token.append((char) keyCode).toString();
+                }
+                return token.append('#').append(keyCode).toString();
+        }
+    }
+    
+    public static Keystroke fromToken(String token) {
+        if (token.length() == 1) {
+            char key = token.charAt(0);
+            return new Keystroke(key, KeyEvent.getExtendedKeyCodeForChar(key), false, false);
+        }
+        
+        boolean control = false;
+        boolean shift = false;
+        String name = token;
+        while (true) {
+            if (name.startsWith("ctrl+")) {
+                control = true;
+                name = name.substring(5);
+            } else if (name.startsWith("shift+") && name.length() > 6) {
+                shift = true;
+                name = name.substring(6);
+            } else {
+                break;
+            }
+        }
+        
+        switch (name) {
+            case "ENTER": return new Keystroke('\n', KeyEvent.VK_ENTER, control, shift);
+            case "BACKSPACE": return new Keystroke('\b', KeyEvent.VK_BACK_SPACE, control, shift);
+            case "ESC": return new Keystroke((char) 0x1B, KeyEvent.VK_ESCAPE, control, shift);
+            case "DELETE": return new Keystroke((char) 0x7F, KeyEvent.VK_DELETE, control, shift);
+            case "LEFT": return new Keystroke(KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_LEFT, control, shift);
+            case "RIGHT": return new Keystroke(KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_RIGHT, control, shift);
+            case "HOME": return new Keystroke(KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_HOME, control, shift);
+            case "END": return new Keystroke(KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_END, control, shift);
+            default:
+                break;
+        }
+        if (name.length() == 1) {
+            char key = name.charAt(0);
+            int keyCode = KeyEvent.getExtendedKeyCodeForChar(key);
+            if (control && Character.isLetter(key)) {
+                // Swing delivers ctrl+letter as the matching ASCII control character.
+                return new Keystroke((char) (Character.toUpperCase(key) & 0x1F), keyCode, true, shift);
+            }
+            return new Keystroke(key, keyCode, control, shift);
+        }
+        if (name.matches("F([1-9]|1[0-2])")) {
+            return new Keystroke(KeyEvent.CHAR_UNDEFINED, KeyEvent.VK_F1 + Integer.parseInt(name.substring(1)) - 1, control, shift);
+        }
+        if (name.startsWith("#")) {
+            return new Keystroke(KeyEvent.CHAR_UNDEFINED, Integer.parseInt(name.substring(1)), control, shift);
+        }
+        throw new IllegalArgumentException("Unknown key token: " + token);
+    }
+    
+    public static final class Keystroke {
+        public final char key;
+        public final int keyCode;
+        public final boolean control;
+        public final boolean shift;
+        
+        public Keystroke(char key, int keyCode, boolean control, boolean shift) {
+            this.key = key;
+            this.keyCode = keyCode;
+            this.control = control;
+            this.shift = shift;
+        }
+        
+        public boolean applyTo(CalculatorEngine engine) {
+            return handle(engine, key, keyCode, control, shift);
+        }
+        
+        @Override
+        public String toString() {
+            return toToken(key, keyCode, control, shift);
+        }
+    }
+}
\ No newline at end of file
@@ -5,11 +5,9 @@ import javax.swing.*;
 
 public class MemoryPanel extends JPanel {
     private CalculatorEngine engine;
-    private DisplayPanel displayPanel;
     
-    public MemoryPanel(CalculatorEngine engine, DisplayPanel displayPanel) {
+    public MemoryPanel(CalculatorEngine engine) {
         this.engine = engine;
-        this.displayPanel = displayPanel;
         initializeComponents();
     }
     
@@ -49,7 +47,6 @@ public class MemoryPanel extends JPanel {
                     engine.memorySubtract();
                     break;
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -0,0 +1,207 @@
+package main.java;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Turns a compiled program into a tree of method handles of type
+// (double[] values, double[] locals)double. Once the tree is invoked often enough
+// the JVM spins it into bytecode and the JIT can inline every node, so the hot
+// tier runs without interpreter dispatch.
+//
+// Operands are combined with foldArguments, which runs its combiner first, so
+// the tree evaluates in program order. A stored or duplicated sub-term writes
+// its value to a local once and every later use reads it back, as in the
+// interpreter, instead of evaluating the sub-tree again.
+final class MethodHandleCompiler {
+    private static final MethodType UNARY = MethodType.methodType(double.class, double.class);
+    private static final MethodType BINARY = MethodType.methodType(double.class, double.class, double.class);
+    
+    private static final MethodHandle LOAD = MethodHandles.arrayElementGetter(double[].class);
+    private static final MethodHandle STORE;
+    private static final MethodHandle[] OPERATIONS = new MethodHandle[CompiledExpression.OP_FACT + 1];
+    private static final MethodHandle[] DEGREE_OPERATIONS = new MethodHandle[CompiledExpression.OP_FACT + 1];
+    private static final MethodHandle[] FAST_OPERATIONS = new MethodHandle[CompiledExpression.OP_FACT + 1];
+    private static final MethodHandle[] FAST_DEGREE_OPERATIONS = new MethodHandle[CompiledExpression.OP_FACT + 1];
+    
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STORE = lookup.findStatic(MethodHandleCompiler.class, "store",
+                    MethodType.methodType(double.class, double.class, double[].class, int.class));
+            OPERATIONS[CompiledExpression.OP_ADD] = lookup.findStatic(MethodHandleCompiler.class, "add", BINARY);
+            OPERATIONS[CompiledExpression.OP_SUB] = lookup.findStatic(MethodHandleCompiler.class, "subtract", BINARY);
+            OPERATIONS[CompiledExpression.OP_MUL] = lookup.findStatic(MethodHandleCompiler.class, "multiply", BINARY);
+            OPERATIONS[CompiledExpression.OP_DIV] = lookup.findStatic(MethodHandleCompiler.class, "divide", BINARY);
+            OPERATIONS[CompiledExpression.OP_POW] = lookup.findStatic(Math.class, "pow", BINARY);
+            OPERATIONS[CompiledExpression.OP_MOD] = lookup.findStatic(MethodHandleCompiler.class, "modulo", BINARY);
+            OPERATIONS[CompiledExpression.OP_SIN] = lookup.findStatic(Math.class, "sin", UNARY);
+            OPERATIONS[CompiledExpression.OP_COS] = lookup.findStatic(Math.class, "cos", UNARY);
+            OPERATIONS[CompiledExpression.OP_TAN] = lookup.findStatic(Math.class, "tan", UNARY);
+            OPERATIONS[CompiledExpression.OP_LOG] = lookup.findStatic(MethodHandleCompiler.class, "log", UNARY);
+            OPERATIONS[CompiledExpression.OP_LN] = lookup.findStatic(MethodHandleCompiler.class, "ln", UNARY);
+            OPERATIONS[CompiledExpression.OP_SQRT] = lookup.findStatic(MethodHandleCompiler.class, "sqrt", UNARY);
+            OPERATIONS[CompiledExpression.OP_NONNEG] = lookup.findStatic(MethodHandleCompiler.class, "nonNegative", UNARY);
+            OPERATIONS[CompiledExpression.OP_FACT] = lookup.findStatic(MethodHandleCompiler.class, "factorial", UNARY);
+            
+            System.arraycopy(OPERATIONS, 0, DEGREE_OPERATIONS, 0, OPERATIONS.length);
+            DEGREE_OPERATIONS[CompiledExpression.OP_SIN] = lookup.findStatic(Trig.class, "sinDegrees", UNARY);
+            DEGREE_OPERATIONS[CompiledExpression.OP_COS] = lookup.findStatic(Trig.class, "cosDegrees", UNARY);
+            DEGREE_OPERATIONS[CompiledExpression.OP_TAN] = lookup.findStatic(MethodHandleCompiler.class, "tanDegrees", UNARY);
+            
+            System.arraycopy(OPERATIONS, 0, FAST_OPERATIONS, 0, OPERATIONS.length);
+            FAST_OPERATIONS[CompiledExpression.OP_SIN] = lookup.findStatic(FastTrig.class, "sin", UNARY);
+            FAST_OPERATIONS[CompiledExpression.OP_COS] = lookup.findStatic(FastTrig.class, "cos", UNARY);
+            FAST_OPERATIONS[CompiledExpression.OP_TAN] = lookup.findStatic(FastTrig.class, "tan", UNARY);
+            
+            System.arraycopy(OPERATIONS, 0, FAST_DEGREE_OPERATIONS, 0, OPERATIONS.length);
+            FAST_DEGREE_OPERATIONS[CompiledExpression.OP_SIN] = lookup.findStatic(FastTrig.class, "sinDegrees", UNARY);
+            FAST_DEGREE_OPERATIONS[CompiledExpression.OP_COS] = lookup.findStatic(FastTrig.class, "cosDegrees", UNARY);
+            FAST_DEGREE_OPERATIONS[CompiledExpression.OP_TAN] = lookup.findStatic(MethodHandleCompiler.class, "fastTanDegrees", UNARY);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private MethodHandleCompiler() {
+    }
+    
+    // Locals the handle from compile needs: the program's own slots plus one
+    // per DUP.
+    static int localCount(CompiledExpression program) {
+        int count = program.getLocalCount();
+        for (int instruction : program.code()) {
+            if ((instruction & CompiledExpression.OPCODE_MASK) == CompiledExpression.OP_DUP) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    static MethodHandle compile(CompiledExpression program, boolean isDegreeMode) {
+        MethodHandle[] operations = program.isFastTrig()
+                ? (isDegreeMode ? FAST_DEGREE_OPERATIONS : FAST_OPERATIONS)
+                : (isDegreeMode ? DEGREE_OPERATIONS : OPERATIONS);
+        double[] constants = program.constants();
+        MethodHandle[] stack = new MethodHandle[Math.max(1, program.getMaxStackDepth())];
+        int temporary = program.getLocalCount();
+        int sp = -1;
+        
+        for (int instruction : program.code()) {
+            int opcode = instruction & CompiledExpression.OPCODE_MASK;
+            int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+            
+            switch (opcode) {
+                case CompiledExpression.OP_PUSH:
+                    stack[++sp] = MethodHandles.dropArguments(
+                            MethodHandles.constant(double.class, constants[operand]), 0, double[].class, double[].class);
+                    break;
+                case CompiledExpression.OP_LOAD:
+                    stack[++sp] = MethodHandles.dropArguments(MethodHandles.insertArguments(LOAD, 1, operand), 1, double[].class);
+                    break;
+                case CompiledExpression.OP_DUP:
+                    stack[sp] = store(stack[sp], temporary);
+                    stack[++sp] = recall(temporary++);
+                    break;
+                case CompiledExpression.OP_STORE:
+                    stack[sp] = store(stack[sp], operand);
+                    break;
+                case CompiledExpression.OP_RECALL:
+                    stack[++sp] = recall(operand);
+                    break;
+                case CompiledExpression.OP_ADD:
+                case CompiledExpression.OP_SUB:
+                case CompiledExpression.OP_MUL:
+                case CompiledExpression.OP_DIV:
+                case CompiledExpression.OP_POW:
+                case CompiledExpression.OP_MOD:
+                    sp--;
+                    // (left, values, locals) -> op(left, right(values, locals)), with left folded in first.
+                    MethodHandle right = MethodHandles.collectArguments(operations[opcode], 1, stack[sp + 1]);
+                    stack[sp] = MethodHandles.foldArguments(right, stack[sp]);
+                    break;
+                default:
+                    if (operations[opcode] == null) {
+                        throw new IllegalStateException("Bad opcode: " + opcode);
+                    }
+                    stack[sp] = MethodHandles.filterReturnValue(stack[sp], operations[opcode]);
+                    break;
+            }
+        }
+        
+        return stack[0];
+    }
+    
+    private static MethodHandle store(MethodHandle value, int slot) {
+        MethodHandle store = MethodHandles.dropArguments(MethodHandles.insertArguments(STORE, 2, slot), 1, double[].class);
+        return MethodHandles.foldArguments(store, value);
+    }
+    
+    private static MethodHandle recall(int slot) {
+        return MethodHandles.dropArguments(MethodHandles.insertArguments(LOAD, 1, slot), 0, double[].class);
+    }
+    
+    private static double store(double x, double[] locals, int slot) {
+        locals[slot] = x;
+        return x;
+    }
+    
+    private static double add(double a, double b) {
+        return a + b;
+    }
+    
+    private static double subtract(double a, double b) {
+        return a - b;
+    }
+    
+    private static double multiply(double a, double b) {
+        return a * b;
+    }
+    
+    private static double divide(double a, double b) {
+        if (b == 0) throw new ArithmeticException("Division by zero");
+        return a / b;
+    }
+    
+    private static double modulo(double a, double b) {
+        if (b == 0) throw new ArithmeticException("Division by zero");
+        return a % b;
+    }
+    
+    private static double log(double x) {
+        if (x <= 0) throw new ArithmeticException("Domain error");
+        return Math.log10(x);
+    }
+    
+    private static double ln(double x) {
+        if (x <= 0) throw new ArithmeticException("Domain error");
+        return Math.log(x);
+    }
+    
+    private static double sqrt(double x) {
+        if (x < 0) throw new ArithmeticException("Domain error");
+        return Math.sqrt(x);
+    }
+    
+    private static double nonNegative(double x) {
+        if (x < 0) throw new ArithmeticException("Domain error");
+        return x;
+    }
+    
+    private static double factorial(double x) {
+        if (Factorials.isPole(x)) throw new ArithmeticException("Domain error");
+        return Factorials.factorial(x);
+    }
+    
+    private static double tanDegrees(double x) {
+        double t = Trig.tanDegrees(x);
+        if (Double.isNaN(t) && Double.isFinite(x)) throw new ArithmeticException("Domain error");
+        return t;
+    }
+    
+    private static double fastTanDegrees(double x) {
+        double t = FastTrig.tanDegrees(x);
+        if (Double.isNaN(t) && Double.isFinite(x)) throw new ArithmeticException("Domain error");
+        return t;
+    }
+}
\ No newline at end of file
@@ -5,11 +5,9 @@ import javax.swing.*;
 
 public class NumericKeypadPanel extends JPanel {
     private CalculatorEngine engine;
-    private DisplayPanel displayPanel;
     
-    public NumericKeypadPanel(CalculatorEngine engine, DisplayPanel displayPanel) {
+    public NumericKeypadPanel(CalculatorEngine engine) {
         this.engine = engine;
-        this.displayPanel = displayPanel;
         initializeComponents();
     }
     
@@ -38,7 +36,6 @@ public class NumericKeypadPanel extends JPanel {
             } else {
                 engine.inputDigit(Integer.parseInt(number));
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -55,7 +52,6 @@ public class NumericKeypadPanel extends JPanel {
             } else {
                 engine.inputDecimal();
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -66,10 +62,7 @@ public class NumericKeypadPanel extends JPanel {
         button.setFont(new Font("Arial", Font.BOLD, 16));
         button.setPreferredSize(new Dimension(60, 50));
         
-        button.addActionListener(e -> {
-            engine.toggleSign();
-            displayPanel.updateDisplay();
-        });
+        button.addActionListener(e -> engine.toggleSign());
         
         return button;
     }
@@ -0,0 +1,12 @@
+package main.java;
+
+// Arithmetic used for calculations. DOUBLE is the fast default;
+// DOUBLE_DOUBLE carries each value as a sum of two doubles for about 31
+// digits at a few times the cost; BIG_DECIMAL works to the engine's precision
+// (34 significant digits unless changed) and keeps decimal literals such as
+// 0.1 exact.
+public enum NumericMode {
+    DOUBLE,
+    DOUBLE_DOUBLE,
+    BIG_DECIMAL
+}
\ No newline at end of file
@@ -5,11 +5,9 @@ import javax.swing.*;
 
 public class ScientificFunctionPanel extends JPanel {
     private CalculatorEngine engine;
-    private DisplayPanel displayPanel;
     
-    public ScientificFunctionPanel(CalculatorEngine engine, DisplayPanel displayPanel) {
+    public ScientificFunctionPanel(CalculatorEngine engine) {
         this.engine = engine;
-        this.displayPanel = displayPanel;
         initializeComponents();
     }
     
@@ -36,6 +34,10 @@ public class ScientificFunctionPanel extends JPanel {
         add(createFunctionButton("x!"));
         add(createBackspaceButton());
         add(createAngleModeButton());
+        
+        add(createNumericModeButton());
+        add(createOperationButton("nCr"));
+        add(createOperationButton("nPr"));
     }
     
     private JButton createFunctionButton(String function) {
@@ -46,11 +48,11 @@ public class ScientificFunctionPanel extends JPanel {
         
         button.addActionListener(e -> {
             if (engine.isExpressionMode()) {
-                engine.addToExpression(function + "(");
+                // Factorial is the postfix ! in expressions, not a function call.
+                engine.addToExpression(function.equals("x!") ? "!" : function + "(");
             } else {
                 engine.performScientificOperation(function);
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -62,10 +64,7 @@ public class ScientificFunctionPanel extends JPanel {
         button.setPreferredSize(new Dimension(70, 35));
         button.setBackground(new Color(230, 230, 250));
         
-        button.addActionListener(e -> {
-            engine.setOperator(operation);
-            displayPanel.updateDisplay();
-        });
+        button.addActionListener(e -> engine.setOperator(operation));
         
         return button;
     }
@@ -82,7 +81,6 @@ public class ScientificFunctionPanel extends JPanel {
             } else {
                 engine.backspace();
             }
-            displayPanel.updateDisplay();
         });
         
         return button;
@@ -94,10 +92,33 @@ public class ScientificFunctionPanel extends JPanel {
         button.setPreferredSize(new Dimension(70, 35));
         button.setBackground(new Color(255, 255, 224));
         
-        button.addActionListener(e -> {
-            engine.toggleAngleMode();
-            button.setText(engine.isDegreeMode() ? "DEG" : "RAD");
-            displayPanel.updateDisplay();
+        button.addActionListener(e -> engine.toggleAngleMode());
+        // Follows the engine, so Ctrl+D is reflected too.
+        engine.addListener((source, changes) -> {
+            if ((changes & CalculatorEngine.MODE_CHANGED) != 0) {
+                button.setText(engine.isDegreeMode() ? "DEG" : "RAD");
+            }
+        });
+        
+        return button;
+    }
+    
+    private JButton createNumericModeButton() {
+        JButton button = new JButton("DBL");
+        button.setFont(new Font("Arial", Font.BOLD, 10));
+        button.setPreferredSize(new Dimension(70, 35));
+        button.setBackground(new Color(255, 255, 224));
+        button.setToolTipText("Number precision: double, double-double or " + CalculatorEngine.DEFAULT_PRECISION + "-digit decimal");
+        
+        button.addActionListener(e -> engine.nextNumericMode());
+        engine.addListener((source, changes) -> {
+            if ((changes & CalculatorEngine.MODE_CHANGED) != 0) {
+                switch (engine.getNumericMode()) {
+                    case DOUBLE_DOUBLE: button.setText("DD"); break;
+                    case BIG_DECIMAL: button.setText("DEC"); break;
+                    default: button.setText("DBL"); break;
+                }
+            }
         });
         
         return button;
@@ -0,0 +1,141 @@
+package main.java;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Holds independent CalculatorEngine sessions keyed by id. The map itself is
+// lock-free; each session is guarded by its own monitor, so callers on
+// different sessions never contend. Sessions idle longer than the timeout are
+// evicted, every engine is capped in history, result cache and expression
+// size, and all sessions share one CompiledExpressionCache.
+public final class SessionManager implements AutoCloseable {
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    public static final int DEFAULT_HISTORY_LIMIT = 100;
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 16;
+    public static final int DEFAULT_MAX_EXPRESSION_LENGTH = 4096;
+    
+    private static final class Session {
+        final CalculatorEngine engine;
+        long lastAccess;
+        boolean closed;
+        
+        Session(CalculatorEngine engine, long now) {
+            this.engine = engine;
+            this.lastAccess = now;
+        }
+    }
+    
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final CompiledExpressionCache compiledCache;
+    private final long idleTimeoutNanos;
+    private final int historyLimit;
+    private final int resultCacheSize;
+    private final int maxExpressionLength;
+    private ScheduledExecutorService evictor;
+    
+    public SessionManager() {
+        this(DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_HISTORY_LIMIT, DEFAULT_RESULT_CACHE_SIZE,
+                DEFAULT_MAX_EXPRESSION_LENGTH, CompiledExpressionCache.shared());
+    }
+    
+    public SessionManager(long idleTimeoutMillis, int historyLimit, int resultCacheSize,
+                          int maxExpressionLength, CompiledExpressionCache compiledCache) {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive: " + idleTimeoutMillis);
+        }
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.historyLimit = historyLimit;
+        this.resultCacheSize = resultCacheSize;
+        this.maxExpressionLength = maxExpressionLength;
+        this.compiledCache = compiledCache;
+    }
+    
+    // Runs action on the session's engine, creating the session if needed.
+    // Calls for the same id are serialized; the engine must not escape action.
+    public <T> T withSession(String id, Function<CalculatorEngine, T> action) {
+        while (true) {
+            Session session = sessions.computeIfAbsent(id, key -> new Session(newEngine(), System.nanoTime()));
+            synchronized (session) {
+                if (session.closed) {
+                    // Evicted between lookup and lock; retry with a fresh session.
+                    continue;
+                }
+                session.lastAccess = System.nanoTime();
+                return action.apply(session.engine);
+            }
+        }
+    }
+    
+    public boolean contains(String id) {
+        return sessions.containsKey(id);
+    }
+    
+    public boolean remove(String id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        synchronized (session) {
+            session.closed = true;
+            return sessions.remove(id, session);
+        }
+    }
+    
+    // Drops every session idle for longer than the timeout; returns how many.
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        Iterator<Map.Entry<String, Session>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Session> entry = iterator.next();
+            Session session = entry.getValue();
+            synchronized (session) {
+                if (now - session.lastAccess > idleTimeoutNanos) {
+                    session.closed = true;
+                    if (sessions.remove(entry.getKey(), session)) {
+                        evicted++;
+                    }
+                }
+            }
+        }
+        return evicted;
+    }
+    
+    // Sweeps idle sessions on a daemon thread until close().
+    public synchronized void startEviction() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+    }
+    
+    private CalculatorEngine newEngine() {
+        CalculatorEngine engine = new CalculatorEngine(compiledCache);
+        engine.setHistoryLimit(historyLimit);
+        engine.setResultCacheSize(resultCacheSize);
+        engine.setMaxExpressionLength(maxExpressionLength);
+        return engine;
+    }
+    
+    public int size() { return sessions.size(); }
+    public CompiledExpressionCache getCompiledCache() { return compiledCache; }
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+package main.java;
+
+import java.lang.invoke.MethodHandle;
+
+// A compiled program that starts in the interpreter and, once evaluated more
+// than threshold times in one angle mode, is promoted to a method-handle tree
+// for that mode. CompiledExpressionCache hands these out, so programs that are
+// evaluated over and over (the server, shared engine sessions) get promoted.
+public final class TieredExpression {
+    public static final int DEFAULT_THRESHOLD = 1000;
+    // Bigger programs stay in the interpreter: the JIT will not inline a tree
+    // this size anyway, and invoking it recurses once per level.
+    static final int MAX_PROMOTED_INSTRUCTIONS = 512;
+    
+    private static final ThreadLocal<double[]> LOCALS = ThreadLocal.withInitial(() -> new double[16]);
+    private static final double[] NO_VALUES = new double[0];
+    
+    private final CompiledExpression program;
+    private final int threshold;
+    private final boolean promotable;
+    private final int localCount;
+    
+    // Racy on purpose: a lost increment only delays promotion slightly.
+    private int degreeCount;
+    private int radianCount;
+    private volatile MethodHandle degreeHandle;
+    private volatile MethodHandle radianHandle;
+    // Made on first request.
+    private TieredExpression fastVariant;
+    
+    public TieredExpression(CompiledExpression program) {
+        this(program, DEFAULT_THRESHOLD);
+    }
+    
+    public TieredExpression(CompiledExpression program, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + threshold);
+        }
+        this.program = program;
+        this.threshold = threshold;
+        this.promotable = program.getInstructionCount() <= MAX_PROMOTED_INSTRUCTIONS;
+        this.localCount = promotable ? MethodHandleCompiler.localCount(program) : 0;
+    }
+    
+    public double evaluate(boolean isDegreeMode) {
+        return evaluate(isDegreeMode, NO_VALUES);
+    }
+    
+    public double evaluate(boolean isDegreeMode, double... values) {
+        MethodHandle handle = handle(isDegreeMode);
+        if (handle == null) {
+            return program.evaluate(isDegreeMode, values);
+        }
+        checkValues(values);
+        try {
+            return invoke(handle, values);
+        } catch (ArithmeticException e) {
+            // Rethrown by the interpreter, exactly as before promotion.
+            return program.evaluate(isDegreeMode, values);
+        }
+    }
+    
+    public boolean tryEvaluate(boolean isDegreeMode, EvaluationResult result) {
+        return tryEvaluate(isDegreeMode, result, NO_VALUES);
+    }
+    
+    // Same status and error position as CompiledExpression.tryEvaluate: the
+    // handles only say that something failed, so failures are re-run in the
+    // interpreter, which also says where.
+    public boolean tryEvaluate(boolean isDegreeMode, EvaluationResult result, double... values) {
+        MethodHandle handle = handle(isDegreeMode);
+        if (handle == null) {
+            return program.tryEvaluate(isDegreeMode, result, values);
+        }
+        checkValues(values);
+        double value;
+        try {
+            value = invoke(handle, values);
+        } catch (ArithmeticException e) {
+            return program.tryEvaluate(isDegreeMode, result, values);
+        }
+        result.setSource(program.getExpression());
+        result.succeed(value);
+        return true;
+    }
+    
+    public void evaluate(boolean isDegreeMode, double[][] columns, double[] out) {
+        if (!promotable) {
+            program.evaluate(isDegreeMode, columns, out);
+            return;
+        }
+        MethodHandle handle = promote(isDegreeMode);
+        int variableCount = program.getVariableCount();
+        if (columns.length < variableCount) {
+            throw new IllegalArgumentException("Expected " + variableCount + " columns, got " + columns.length);
+        }
+        
+        double[] row = new double[variableCount];
+        for (int i = 0; i < out.length; i++) {
+            for (int v = 0; v < variableCount; v++) {
+                row[v] = columns[v][i];
+            }
+            try {
+                out[i] = invoke(handle, row);
+            } catch (ArithmeticException e) {
+                out[i] = program.evaluate(isDegreeMode, row);
+            }
+        }
+    }
+    
+    // The same program with FastTrig's sin, cos and tan, tiered on its own.
+    public TieredExpression withFastTrig() {
+        if (program.isFastTrig()) {
+            return this;
+        }
+        // Racy on purpose: at worst two copies are made and one loses its counts.
+        TieredExpression fast = fastVariant;
+        if (fast == null) {
+            fast = new TieredExpression(program.withFastTrig(), threshold);
+            fastVariant = fast;
+        }
+        return fast;
+    }
+    
+    public boolean isCompiled(boolean isDegreeMode) {
+        return (isDegreeMode ? degreeHandle : radianHandle) != null;
+    }
+    
+    public CompiledExpression getProgram() {
+        return program;
+    }
+    
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    // The promoted handle, or null while the program is interpreted.
+    private MethodHandle handle(boolean isDegreeMode) {
+        MethodHandle handle = isDegreeMode ? degreeHandle : radianHandle;
+        if (handle != null || !promotable) {
+            return handle;
+        }
+        int count = isDegreeMode ? ++degreeCount : ++radianCount;
+        return count > threshold ? promote(isDegreeMode) : null;
+    }
+    
+    private MethodHandle promote(boolean isDegreeMode) {
+        MethodHandle handle = isDegreeMode ? degreeHandle : radianHandle;
+        if (handle == null) {
+            handle = MethodHandleCompiler.compile(program, isDegreeMode);
+            if (isDegreeMode) {
+                degreeHandle = handle;
+            } else {
+                radianHandle = handle;
+            }
+        }
+        return handle;
+    }
+    
+    private void checkValues(double[] values) {
+        if (values.length < program.getVariableCount()) {
+            throw new IllegalArgumentException("Expected " + program.getVariableCount() + " values, got " + values.length);
+        }
+    }
+    
+    private double invoke(MethodHandle handle, double[] values) {
+        double[] locals = NO_VALUES;
+        if (localCount > 0) {
+            locals = LOCALS.get();
+            if (locals.length < localCount) {
+                locals = new double[localCount];
+                LOCALS.set(locals);
+            }
+        }
+        try {
+            return (double) handle.invokeExact(values, locals);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return program.toString();
+    }
+}
\ No newline at end of file
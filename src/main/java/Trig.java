@@ -0,0 +1,143 @@
+package main.java;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+// sin, cos and tan for the double backends. Degrees are reduced in degrees:
+// x mod 360 is exact in floating point and the folds into the first quadrant
+// (180 - a, 90 - a) are exact by Sterbenz's lemma. The angle, at most 45
+// degrees, then goes to radians as a head and a tail (the fma residue plus
+// the rounding of pi / 180), and the tail is applied as a first-order
+// correction, so the error is Math's own plus the final rounding: about one
+// ulp, one and a half for tan. Multiples of 30 and 45 degrees come out
+// exact: sin(180) is 0, cos(60) is 0.5 and tan(90) is a pole (NaN, reported
+// as a domain error) instead of 1.6e16.
+final class Trig {
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180;
+    private static final double RADIANS_PER_DEGREE_LOW;
+    // Correctly rounded, from 20-digit literals.
+    private static final double SQRT_HALF = 0.70710678118654752440;
+    private static final double SQRT3_HALF = 0.86602540378443864676;
+    private static final double SQRT3 = 1.7320508075688772935;
+    private static final double INV_SQRT3 = 0.57735026918962576451;
+    
+    static {
+        MathContext mc = new MathContext(40);
+        BigDecimal exact = DecimalMath.pi(mc).divide(BigDecimal.valueOf(180), mc);
+        RADIANS_PER_DEGREE_LOW = exact.subtract(new BigDecimal(RADIANS_PER_DEGREE)).doubleValue();
+    }
+    
+    private Trig() {
+    }
+    
+    static double sin(double x, boolean isDegreeMode) {
+        return isDegreeMode ? sinDegrees(x) : Math.sin(x);
+    }
+    
+    static double cos(double x, boolean isDegreeMode) {
+        return isDegreeMode ? cosDegrees(x) : Math.cos(x);
+    }
+    
+    // NaN at the poles of the degree-mode tangent.
+    static double tan(double x, boolean isDegreeMode) {
+        return isDegreeMode ? tanDegrees(x) : Math.tan(x);
+    }
+    
+    static double sinDegrees(double x) {
+        double r = reduce(x, 360);
+        double a = Math.abs(r);
+        if (a > 90) {
+            a = 180 - a;
+        }
+        double s = sinQuadrant(a);
+        return r < 0 ? -s : s;
+    }
+    
+    static double cosDegrees(double x) {
+        double a = Math.abs(reduce(x, 360));
+        if (a > 90) {
+            return -cosQuadrant(180 - a);
+        }
+        return cosQuadrant(a);
+    }
+    
+    static double tanDegrees(double x) {
+        double r = reduce(x, 180);
+        double a = Math.abs(r);
+        double t;
+        if (a == 90) {
+            return Double.NaN;
+        } else if (a <= 45) {
+            t = a == 30 ? INV_SQRT3 : a == 45 ? 1 : tanSmall(a);
+        } else {
+            double b = 90 - a;
+            t = b == 30 ? SQRT3 : cotSmall(b);
+        }
+        return r < 0 ? -t : t;
+    }
+    
+    // x into [-period / 2, period / 2], exactly. Below 2^52 the multiple of
+    // the period is exact and so is the difference, which is much cheaper
+    // than the remainder; the folds catch a quotient rounded the wrong way.
+    private static double reduce(double x, double period) {
+        double r = Math.abs(x) < 0x1p52 ? x - Math.rint(x * (1 / period)) * period : x % period;
+        if (r > period / 2) {
+            r -= period;
+        } else if (r < -period / 2) {
+            r += period;
+        }
+        return r;
+    }
+    
+    // a in [0, 90]; at or below 45 degrees directly, above as the cofunction
+    // of 90 - a, so the series argument stays small.
+    private static double sinQuadrant(double a) {
+        if (a <= 45) {
+            return a == 30 ? 0.5 : a == 45 ? SQRT_HALF : sinSmall(a);
+        }
+        double b = 90 - a;
+        return b == 30 ? SQRT3_HALF : cosSmall(b);
+    }
+    
+    private static double cosQuadrant(double a) {
+        if (a <= 45) {
+            return a == 30 ? SQRT3_HALF : a == 45 ? SQRT_HALF : cosSmall(a);
+        }
+        double b = 90 - a;
+        return b == 30 ? 0.5 : sinSmall(b);
+    }
+    
+    // a in [0, 45] degrees; h + tail(a) is a in radians to about 2^-106, and
+    // the tail only needs sin h and cos h to a few digits, hence the short series.
+    private static double sinSmall(double a) {
+        double h = a * RADIANS_PER_DEGREE;
+        double h2 = h * h;
+        return Math.sin(h) + tail(a, h) * (1 + h2 * (-0.5 + h2 / 24));
+    }
+    
+    private static double cosSmall(double a) {
+        double h = a * RADIANS_PER_DEGREE;
+        double h2 = h * h;
+        return Math.cos(h) - tail(a, h) * h * (1 + h2 * (-1.0 / 6 + h2 / 120));
+    }
+    
+    private static double tanSmall(double a) {
+        double h = a * RADIANS_PER_DEGREE;
+        double t = Math.tan(h);
+        return t + tail(a, h) * (1 + t * t);
+    }
+    
+    // 1 / tan a, with the division's residue and the tail folded into one
+    // correction rather than rounding tan a first.
+    private static double cotSmall(double a) {
+        double h = a * RADIANS_PER_DEGREE;
+        double t = Math.tan(h);
+        double q = 1 / t;
+        double d = tail(a, h) * (1 + t * t);
+        return q + q * (Math.fma(-q, t, 1) - d * q);
+    }
+    
+    private static double tail(double a, double h) {
+        return Math.fma(a, RADIANS_PER_DEGREE, -h) + a * RADIANS_PER_DEGREE_LOW;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,210 @@
+package main.java;
+
+import java.util.Arrays;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Loaded reflectively by CompiledExpression only when jdk.incubator.vector is in the boot layer.
+//
+// Lane-wise SIN, COS, TAN, LOG, LOG10 and POW are not specified to match Math
+// (or Trig) bit for bit and may differ in the last place, so results, and a
+// quotient or logarithm argument that lands on zero, can differ slightly from
+// scalar evaluation. Errors are only detected per block here; the caller
+// re-runs that block through the scalar interpreter to report them.
+final class VectorColumnEvaluator implements CompiledExpression.ColumnKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int BLOCK = 1024;
+    
+    @Override
+    public int evaluate(CompiledExpression program, boolean isDegreeMode, double[][] columns, double[] out, int from, int to) {
+        int[] code = program.code();
+        double[] constants = program.constants();
+        double[][] stack = new double[Math.max(1, program.getMaxStackDepth())][BLOCK];
+        double[][] locals = new double[program.getLocalCount()][BLOCK];
+        boolean fastTrig = program.isFastTrig();
+        
+        for (int start = from; start < to; start += BLOCK) {
+            int length = Math.min(BLOCK, to - start);
+            int sp = -1;
+            
+            for (int instruction : code) {
+                int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+                switch (instruction & CompiledExpression.OPCODE_MASK) {
+                    case CompiledExpression.OP_PUSH:
+                        Arrays.fill(stack[++sp], 0, length, constants[operand]);
+                        break;
+                    case CompiledExpression.OP_LOAD:
+                        System.arraycopy(columns[operand], start, stack[++sp], 0, length);
+                        break;
+                    case CompiledExpression.OP_DUP:
+                        System.arraycopy(stack[sp], 0, stack[++sp], 0, length);
+                        break;
+                    case CompiledExpression.OP_STORE:
+                        System.arraycopy(stack[sp], 0, locals[operand], 0, length);
+                        break;
+                    case CompiledExpression.OP_RECALL:
+                        System.arraycopy(locals[operand], 0, stack[++sp], 0, length);
+                        break;
+                    case CompiledExpression.OP_ADD:
+                        sp--;
+                        binary(VectorOperators.ADD, stack[sp], stack[sp + 1], length);
+                        break;
+                    case CompiledExpression.OP_SUB:
+                        sp--;
+                        binary(VectorOperators.SUB, stack[sp], stack[sp + 1], length);
+                        break;
+                    case CompiledExpression.OP_MUL:
+                        sp--;
+                        binary(VectorOperators.MUL, stack[sp], stack[sp + 1], length);
+                        break;
+                    case CompiledExpression.OP_DIV:
+                        sp--;
+                        if (any(stack[sp + 1], length, VectorOperators.EQ, 0)) {
+                            return start;
+                        }
+                        binary(VectorOperators.DIV, stack[sp], stack[sp + 1], length);
+                        break;
+                    case CompiledExpression.OP_POW:
+                        sp--;
+                        binary(VectorOperators.POW, stack[sp], stack[sp + 1], length);
+                        break;
+                    case CompiledExpression.OP_MOD:
+                        sp--;
+                        if (any(stack[sp + 1], length, VectorOperators.EQ, 0)) {
+                            return start;
+                        }
+                        // No lane-wise floating remainder in the Vector API.
+                        for (int i = 0; i < length; i++) {
+                            stack[sp][i] = stack[sp][i] % stack[sp + 1][i];
+                        }
+                        break;
+                    case CompiledExpression.OP_SIN:
+                        if (!trig(VectorOperators.SIN, CompiledExpression.OP_SIN, stack[sp], length, isDegreeMode, fastTrig)) {
+                            return start;
+                        }
+                        break;
+                    case CompiledExpression.OP_COS:
+                        if (!trig(VectorOperators.COS, CompiledExpression.OP_COS, stack[sp], length, isDegreeMode, fastTrig)) {
+                            return start;
+                        }
+                        break;
+                    case CompiledExpression.OP_TAN:
+                        if (!trig(VectorOperators.TAN, CompiledExpression.OP_TAN, stack[sp], length, isDegreeMode, fastTrig)) {
+                            return start;
+                        }
+                        break;
+                    case CompiledExpression.OP_LOG:
+                        if (any(stack[sp], length, VectorOperators.LE, 0)) {
+                            return start;
+                        }
+                        unary(VectorOperators.LOG10, stack[sp], length);
+                        break;
+                    case CompiledExpression.OP_LN:
+                        if (any(stack[sp], length, VectorOperators.LE, 0)) {
+                            return start;
+                        }
+                        unary(VectorOperators.LOG, stack[sp], length);
+                        break;
+                    case CompiledExpression.OP_SQRT:
+                        if (any(stack[sp], length, VectorOperators.LT, 0)) {
+                            return start;
+                        }
+                        unary(VectorOperators.SQRT, stack[sp], length);
+                        break;
+                    case CompiledExpression.OP_NONNEG:
+                        if (any(stack[sp], length, VectorOperators.LT, 0)) {
+                            return start;
+                        }
+                        break;
+                    // Table lookup and Lanczos sum per lane; there is no vector gamma.
+                    case CompiledExpression.OP_FACT:
+                        for (int i = 0; i < length; i++) {
+                            if (Factorials.isPole(stack[sp][i])) {
+                                return start;
+                            }
+                            stack[sp][i] = Factorials.factorial(stack[sp][i]);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode: " + (instruction & CompiledExpression.OPCODE_MASK));
+                }
+            }
+            
+            System.arraycopy(stack[0], 0, out, start, length);
+        }
+        return -1;
+    }
+    
+    private static void binary(VectorOperators.Binary op, double[] a, double[] b, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+            va.lanewise(op, vb).intoArray(a, i);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i, tail);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i, tail);
+            va.lanewise(op, vb).intoArray(a, i, tail);
+        }
+    }
+    
+    private static void unary(VectorOperators.Unary op, double[] a, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(op).intoArray(a, i);
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            DoubleVector.fromArray(SPECIES, a, i, tail).lanewise(op).intoArray(a, i, tail);
+        }
+    }
+    
+    // Radians stay lane-wise. Exact degree reduction branches on the quadrant
+    // and the fast table needs a gather, so those run per element. False at a
+    // pole of tan.
+    private static boolean trig(VectorOperators.Unary op, int opcode, double[] a, int length,
+                             boolean isDegreeMode, boolean fastTrig) {
+        if (!isDegreeMode && !fastTrig) {
+            unary(op, a, length);
+            return true;
+        }
+        for (int i = 0; i < length; i++) {
+            double x = a[i];
+            switch (opcode) {
+                case CompiledExpression.OP_SIN:
+                    a[i] = fastTrig ? FastTrig.sin(x, isDegreeMode) : Trig.sin(x, isDegreeMode);
+                    break;
+                case CompiledExpression.OP_COS:
+                    a[i] = fastTrig ? FastTrig.cos(x, isDegreeMode) : Trig.cos(x, isDegreeMode);
+                    break;
+                default:
+                    a[i] = fastTrig ? FastTrig.tan(x, isDegreeMode) : Trig.tan(x, isDegreeMode);
+                    if (Double.isNaN(a[i]) && Double.isFinite(x)) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+    
+    private static boolean any(double[] a, int length, VectorOperators.Comparison test, double value) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            if (DoubleVector.fromArray(SPECIES, a, i).compare(test, value).anyTrue()) {
+                return true;
+            }
+        }
+        if (i < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(i, length);
+            return DoubleVector.fromArray(SPECIES, a, i, tail).compare(test, value, tail).anyTrue();
+        }
+        return false;
+    }
+}
\ No newline at end of file